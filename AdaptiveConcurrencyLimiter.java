@@ -0,0 +1,79 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.io.InterruptedIOException;
+
+/**
+ * AIMD concurrency limit for one backend. Every successful call raises the limit by
+ * 1/limit, so it grows by about one per round of calls; a call the backend rejected as
+ * overloaded (429, 503, timeout) halves it. Callers over the limit wait in {@link #acquire}.
+ *
+ * Only one halving happens per round: a drop counts only if its call started after the last
+ * decrease, so a burst of 429s from the same overloaded moment doesn't collapse the limit to 1.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    public enum Outcome {
+        SUCCESS,
+        // the backend pushed back; shrink the limit
+        DROPPED,
+        // says nothing about capacity: cancelled calls, bad requests
+        IGNORED
+    }
+
+    private static final double BACKOFF_RATIO = 0.5;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long decreases;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Waits for a free slot. The returned ticket must be passed to {@link #release}.
+     */
+    public synchronized long acquire() throws InterruptedIOException {
+        queued++;
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an LLM slot");
+        } finally {
+            queued--;
+        }
+        inFlight++;
+        return decreases;
+    }
+
+    public synchronized void release(long ticket, Outcome outcome) {
+        inFlight--;
+        if (outcome == Outcome.SUCCESS) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        } else if (outcome == Outcome.DROPPED && ticket == decreases) {
+            limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+            decreases++;
+        }
+        notifyAll();
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public synchronized int queueDepth() {
+        return queued;
+    }
+}
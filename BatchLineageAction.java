@@ -0,0 +1,230 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.PsiSearchHelper;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * "Run Lineage for Project": finds every Spark entry point (a method that writes a Dataset or
+ * DataFrame), analyzes them on a bounded worker pool with a rate limit on LLM calls, and stores
+ * the results in the persistent {@link LineageIndex}. Entry points whose code hasn't changed
+ * since the last scan are served from the index.
+ */
+public class BatchLineageAction extends AnAction {
+
+    private static final Logger LOG = Logger.getInstance(BatchLineageAction.class);
+
+    private static final int WORKERS = 4;
+    private static final double LLM_CALLS_PER_SECOND = 1.0;
+    // every sink isWriteSink() accepts has write() or writeStream() in its call chain, so these
+    // two words find all of them; format names such as "delta" are string literals the IN_CODE
+    // word search never sees. isWriteSink() has the final say per call
+    private static final String[] SINK_WORDS = {"write", "writeStream"};
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) return;
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Running Spark lineage for project", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                runBatch(project, indicator);
+            }
+        });
+    }
+
+    private void runBatch(Project project, ProgressIndicator indicator) {
+        long start = System.nanoTime();
+        indicator.setIndeterminate(true);
+        indicator.setText("Finding Spark entry points...");
+        List<SmartPsiElementPointer<PsiMethod>> entryPoints = findEntryPoints(project, indicator);
+        LOG.debug("batch lineage : " + entryPoints.size() + " entry points");
+
+        LineageIndex index = LineageIndex.getInstance(project);
+        index.prune(project, indicator);
+        LineageResponseCache cache = LineageResponseCache.getInstance(project);
+        RequestRateLimiter limiter = new RequestRateLimiter(LLM_CALLS_PER_SECOND);
+        ExecutorService workers = AppExecutorUtil.createBoundedApplicationPoolExecutor("SparkLineageBatch", WORKERS);
+
+        AtomicInteger done = new AtomicInteger();
+        AtomicInteger fromIndex = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        indicator.setIndeterminate(false);
+        indicator.setText("Analyzing " + entryPoints.size() + " Spark entry points...");
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (SmartPsiElementPointer<PsiMethod> pointer : entryPoints) {
+            futures.add(workers.submit(() -> {
+                try {
+                    if (!indicator.isCanceled()) {
+                        boolean reused = analyze(pointer, index, cache, limiter, indicator);
+                        if (reused) fromIndex.incrementAndGet();
+                    }
+                } catch (ProcessCanceledException ignored) {
+                } catch (RuntimeException ex) {
+                    failed.incrementAndGet();
+                    LOG.warn("batch lineage failed for " + pointer + " : " + ex);
+                } finally {
+                    indicator.setFraction((double) done.incrementAndGet() / entryPoints.size());
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                while (!future.isDone()) {
+                    if (indicator.isCanceled()) {
+                        // workers see the cancelled indicator and stop at their next check; interrupting
+                        // them mid-PSI or mid-IO could leave the index or cache half written
+                        return;
+                    }
+                    indicator.setText2(LLMClient.metrics());
+                    try {
+                        future.get(100, TimeUnit.MILLISECONDS);
+                    } catch (TimeoutException | ExecutionException ignored) {
+                        // poll again so cancellation stays responsive; failures are counted by the worker
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return;
+        } finally {
+            workers.shutdown();
+        }
+
+        long seconds = (System.nanoTime() - start) / 1_000_000_000L;
+        String summary = "Analyzed " + entryPoints.size() + " Spark entry points in " + seconds + " s\n"
+                + fromIndex.get() + " up to date in the index, " + failed.get() + " failed.\n"
+                + "LLM cache hits=" + cache.getHits() + " misses=" + cache.getMisses() + "\n"
+                + LLMClient.metrics();
+        LOG.debug("batch lineage : " + summary.replace('\n', ' '));
+        ApplicationManager.getApplication().invokeLater(() ->
+                Messages.showInfoMessage(project, summary, "Spark Lineage"), project.getDisposed());
+    }
+
+    /**
+     * @return true if the index already held lineage for the current code
+     */
+    private static boolean analyze(SmartPsiElementPointer<PsiMethod> pointer, LineageIndex index,
+                                   LineageResponseCache cache, RequestRateLimiter limiter, ProgressIndicator indicator) {
+        String[] keyAndPath = ReadAction.compute(() -> {
+            PsiMethod method = pointer.getElement();
+            if (method == null) return null;
+            PsiFile file = method.getContainingFile();
+            return new String[]{LineageIndex.methodKey(method),
+                    file != null && file.getVirtualFile() != null ? file.getVirtualFile().getPath() : null};
+        });
+        if (keyAndPath == null) return false;
+
+        String code = new SparkCodeCollector().collectFullMethodContextParallel(pointer, indicator);
+        if (code == null || code.isEmpty()) return false;
+        if (index.getCurrent(keyAndPath[0], code) != null) return true;
+
+        indicator.checkCanceled();
+        String staticMermaid = ReadAction.compute(() -> {
+            PsiMethod method = pointer.getElement();
+            if (method == null) return null;
+            StaticLineageAnalyzer.Result result = new StaticLineageAnalyzer().analyze(method);
+            return result.isEmpty() ? null : result.toMermaid();
+        });
+
+        LLMPrompt prompt = PromptBuilder.buildPrompt(code, staticMermaid);
+        String key = LineageResponseCache.key(LLMClient.currentModelId(), prompt.text(), code);
+        String lineage = cache.get(key);
+        if (lineage == null) {
+            limiter.acquire();
+            indicator.checkCanceled();
+            // a failed call throws LLMException, counted as a failed entry point by the caller
+            lineage = LLMClient.sendPrompt(prompt);
+            cache.put(key, lineage);
+        }
+        index.put(keyAndPath[0], keyAndPath[1], code, staticMermaid, lineage);
+        return false;
+    }
+
+    /**
+     * Uses the word index to find files mentioning a sink method, then keeps methods with a real
+     * write() chain. Each file is scanned in its own non-blocking read action, so typing in the
+     * editor is never held up by the scan and cancelling the task stops it between files.
+     */
+    private static List<SmartPsiElementPointer<PsiMethod>> findEntryPoints(Project project, ProgressIndicator indicator) {
+        Set<VirtualFile> candidates = ReadAction.nonBlocking(() -> {
+            GlobalSearchScope scope = GlobalSearchScope.projectScope(project);
+            Set<VirtualFile> files = new LinkedHashSet<>();
+            for (String word : SINK_WORDS) {
+                PsiSearchHelper.getInstance(project).processAllFilesWithWord(word, scope, file -> {
+                    if (file instanceof PsiJavaFile) files.add(file.getVirtualFile());
+                    return true;
+                }, true);
+            }
+            return files;
+        }).wrapProgress(indicator).expireWith(project).executeSynchronously();
+
+        List<SmartPsiElementPointer<PsiMethod>> result = new ArrayList<>();
+        for (VirtualFile candidate : candidates) {
+            indicator.checkCanceled();
+            result.addAll(ReadAction.nonBlocking(() -> entryPointsIn(project, candidate))
+                    .wrapProgress(indicator)
+                    .expireWith(project)
+                    .executeSynchronously());
+        }
+        return result;
+    }
+
+    private static List<SmartPsiElementPointer<PsiMethod>> entryPointsIn(Project project, VirtualFile virtualFile) {
+        PsiFile file = virtualFile.isValid() ? PsiManager.getInstance(project).findFile(virtualFile) : null;
+        if (file == null) return Collections.emptyList();
+        Set<PsiMethod> methods = new LinkedHashSet<>();
+        file.accept(new JavaRecursiveElementVisitor() {
+            @Override
+            public void visitMethodCallExpression(PsiMethodCallExpression call) {
+                super.visitMethodCallExpression(call);
+                if (StaticLineageAnalyzer.isWriteSink(call)) {
+                    PsiMethod method = PsiTreeUtil.getParentOfType(call, PsiMethod.class);
+                    if (method != null) methods.add(method);
+                }
+            }
+        });
+
+        SmartPointerManager pointers = SmartPointerManager.getInstance(project);
+        List<SmartPsiElementPointer<PsiMethod>> result = new ArrayList<>();
+        for (PsiMethod method : methods) {
+            result.add(pointers.createSmartPsiElementPointer(method));
+        }
+        return result;
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+}
@@ -0,0 +1,241 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Map-reduce lineage for jobs whose collected code does not fit into the model window.
+ * The code is split into method chunks, each chunk is sent as its own prompt with bounded
+ * parallelism, and the partial Mermaid fragments are merged locally into one graph.
+ * Wall time follows the slowest chunk instead of the total code size.
+ */
+public class ChunkedLineageRunner {
+
+    private static final Logger LOG = Logger.getInstance(ChunkedLineageRunner.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    // small chunks keep each generation short; the merge does the rest
+    public static final int DEFAULT_CHUNK_TOKENS = 8_000;
+
+    // shared by every run, so concurrent runs together stay within DEFAULT_PARALLELISM calls
+    private static final ExecutorService EXECUTOR =
+            AppExecutorUtil.createBoundedApplicationPoolExecutor("SparkLineageChunks", DEFAULT_PARALLELISM);
+
+    private final int chunkTokens;
+
+    public ChunkedLineageRunner(int chunkTokens) {
+        this.chunkTokens = chunkTokens;
+    }
+
+    /**
+     * Cancelling {@code indicator} interrupts the running chunk calls, which cancels their HTTP requests.
+     *
+     * @param send      performs one LLM call (possibly cached) for a chunk's code and prompt and
+     *                  returns the response text
+     * @param onPartial receives each chunk's response as soon as it completes, for incremental display
+     */
+    public Result run(String sparkCode, BiFunction<String, LLMPrompt, String> send, Consumer<String> onPartial,
+                      ProgressIndicator indicator) {
+        long start = System.nanoTime();
+        List<String> chunks = chunk(sparkCode);
+        LOG.debug("chunked lineage : " + chunks.size() + " chunks of <= " + chunkTokens + " tokens");
+
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            String chunk = chunks.get(i);
+            LLMPrompt prompt = PromptBuilder.buildChunkPrompt(chunk, i + 1, chunks.size());
+            int index = i + 1;
+            futures.add(EXECUTOR.submit(() -> {
+                long chunkStart = System.nanoTime();
+                String response = send.apply(chunk, prompt);
+                LOG.debug("chunk " + index + " done in " + (System.nanoTime() - chunkStart) / 1_000_000 + " ms");
+                onPartial.accept("\n\n--- part " + index + " of " + chunks.size() + " ---\n" + response);
+                return response;
+            }));
+        }
+
+        List<String> fragments = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        int done = 0;
+        for (Future<String> future : futures) {
+            int index = done + 1;
+            try {
+                String response = ProgressIndicatorUtils.awaitWithCheckCanceled(future, indicator);
+                if (MermaidValidator.extractMermaid(response) == null) {
+                    failed.add("part " + index + ": the answer contains no Mermaid diagram");
+                } else {
+                    fragments.add(response);
+                }
+            } catch (ProcessCanceledException e) {
+                // interrupts the workers, which cancels their HTTP calls
+                futures.forEach(f -> f.cancel(true));
+                throw e;
+            } catch (RuntimeException e) {
+                // an LLMException from the chunk's call, or a bug in the chunk worker
+                failed.add("part " + index + ": " + rootMessage(e));
+            }
+            indicator.setFraction(0.2 + 0.7 * (++done) / futures.size());
+        }
+
+        String merged = MermaidParser.parse(mergeMermaid(fragments)).repaired;
+        LOG.debug("chunked lineage finished in " + (System.nanoTime() - start) / 1_000_000 + " ms, "
+                + failed.size() + " of " + chunks.size() + " parts failed");
+        StringBuilder markdown = new StringBuilder("## Data Lineage (merged from ")
+                .append(chunks.size() - failed.size()).append(" of ").append(chunks.size()).append(" parts)\n\n");
+        if (!failed.isEmpty()) {
+            markdown.append("**Incomplete:** the lineage of these parts is missing:\n");
+            for (String failure : failed) {
+                markdown.append("- ").append(failure).append("\n");
+            }
+            markdown.append("\n");
+        }
+        markdown.append("```mermaid\n").append(merged).append("\n```\n");
+        return new Result(markdown.toString(), failed);
+    }
+
+    // The chunk's own failure, without the ExecutionException wrappers around it
+    private static String rootMessage(Throwable failure) {
+        Throwable cause = failure;
+        while (!(cause instanceof LLMException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause.getMessage();
+    }
+
+    /** The merged answer, and which chunks it is missing. */
+    public static final class Result {
+        public final String markdown;
+        public final List<String> failedChunks;
+
+        Result(String markdown, List<String> failedChunks) {
+            this.markdown = markdown;
+            this.failedChunks = Collections.unmodifiableList(failedChunks);
+        }
+
+        /** A partial merge must not be indexed or cached as the job's lineage. */
+        public boolean isComplete() {
+            return failedChunks.isEmpty();
+        }
+    }
+
+    /**
+     * Packs consecutive method blocks into chunks of at most {@code chunkTokens}. A single
+     * method larger than the chunk size gets a chunk of its own.
+     */
+    List<String> chunk(String sparkCode) {
+        List<String> chunks = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (String block : PromptBuilder.splitMethods(sparkCode)) {
+            if (current.length() > 0
+                    && PromptBuilder.estimateTokens(current) + PromptBuilder.estimateTokens(block) > chunkTokens) {
+                chunks.add(current.toString());
+                current.setLength(0);
+            }
+            current.append(block);
+        }
+        if (current.length() > 0) {
+            chunks.add(current.toString());
+        }
+        return chunks;
+    }
+
+    /**
+     * Unions the fragments into one flowchart. Node and edge lines are de-duplicated across
+     * fragments, and top-level subgraphs with the same id (the same dataset seen by several
+     * chunks) become one subgraph holding the union of their contents. Nested subgraphs are
+     * kept whole so their subgraph/end lines stay paired. {@code linkStyle} lines are dropped:
+     * they address edges by their position within one fragment.
+     */
+    static String mergeMermaid(List<String> responses) {
+        // plain lines (String) and top-level subgraphs (Subgraph), in order of first appearance
+        Set<Object> units = new LinkedHashSet<>();
+        Map<String, Subgraph> subgraphs = new HashMap<>();
+        for (String response : responses) {
+            String diagram = MermaidValidator.extractMermaid(response);
+            if (diagram == null) continue;
+
+            Subgraph current = null;
+            StringBuilder nested = new StringBuilder();
+            int depth = 0;
+            for (String raw : diagram.split("\\r?\\n")) {
+                String line = raw.trim();
+                if (line.isEmpty() || line.startsWith("graph") || line.startsWith("flowchart")
+                        || line.startsWith("linkStyle")) continue;
+                if (line.startsWith("subgraph")) {
+                    if (depth++ == 0) {
+                        current = subgraphs.computeIfAbsent(subgraphId(line), id -> new Subgraph(line));
+                        units.add(current);
+                        continue;
+                    }
+                } else if (line.equals("end") && depth > 0) {
+                    depth--;
+                    if (depth == 0) {
+                        current = null;
+                        continue;
+                    }
+                    if (depth == 1) {
+                        nested.append(line);
+                        current.body.add(nested.toString());
+                        nested.setLength(0);
+                        continue;
+                    }
+                }
+                if (depth == 0) {
+                    units.add(line);
+                } else if (depth == 1) {
+                    current.body.add(line);
+                } else {
+                    nested.append(line).append("\n        ");
+                }
+            }
+        }
+        StringBuilder merged = new StringBuilder("graph TD\n");
+        for (Object unit : units) {
+            if (unit instanceof Subgraph) {
+                Subgraph subgraph = (Subgraph) unit;
+                merged.append("    ").append(subgraph.header).append("\n");
+                for (String line : subgraph.body) {
+                    merged.append("        ").append(line).append("\n");
+                }
+                merged.append("    end\n");
+            } else {
+                merged.append("    ").append(unit).append("\n");
+            }
+        }
+        return merged.toString().trim();
+    }
+
+    // "subgraph orders[Orders table]" and "subgraph orders" both name the subgraph "orders"
+    static String subgraphId(String header) {
+        String rest = header.substring("subgraph".length()).trim();
+        int end = 0;
+        while (end < rest.length() && !Character.isWhitespace(rest.charAt(end)) && rest.charAt(end) != '[') {
+            end++;
+        }
+        return end == 0 ? rest : rest.substring(0, end);
+    }
+
+    private static final class Subgraph {
+        final String header;
+        final Set<String> body = new LinkedHashSet<>();
+
+        Subgraph(String header) {
+            this.header = header;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+
+/**
+ * Stops calling a backend that keeps failing. After {@code failureThreshold} failures in a row
+ * the circuit opens and calls fail immediately for {@code openMillis}; then one trial call is let
+ * through, and its outcome closes the circuit again or reopens it.
+ */
+public class CircuitBreaker {
+
+    private static final Logger LOG = Logger.getInstance(CircuitBreaker.class);
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static class OpenException extends IOException {
+        OpenException(String message) {
+            super(message);
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Throws {@link OpenException} while the circuit is open. Every call let through must be
+     * followed by {@link #onSuccess}, {@link #onFailure} or {@link #onCancel}.
+     */
+    public synchronized void beforeCall() throws OpenException {
+        if (state == State.OPEN) {
+            long remaining = openedAt + openMillis - System.currentTimeMillis();
+            if (remaining > 0) {
+                throw new OpenException(name + " is failing, not calling it for another " + (remaining + 999) / 1000 + " s");
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) throw new OpenException(name + " is failing, waiting for a trial call to finish");
+            trialInFlight = true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        if (state != State.CLOSED) LOG.debug("circuit : " + name + " closed again");
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOG.info("circuit : " + name + " opened after " + consecutiveFailures + " failures");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+        trialInFlight = false;
+    }
+
+    // the call ended without telling us anything about the backend's health
+    public synchronized void onCancel() {
+        trialInFlight = false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+}
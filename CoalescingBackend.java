@@ -0,0 +1,221 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Single-flight in front of a backend: while a prompt is being generated, identical prompts
+ * (same model, same SHA-256) join the call in flight instead of starting their own, and every
+ * caller gets the same answer, or the same error. This covers a batch run and an editor action
+ * asking for the same method at once.
+ *
+ * Streaming callers that join late first get everything streamed so far as one chunk, then
+ * the remaining tokens as they arrive. Joining a non-streaming call delivers the whole answer
+ * as one chunk when it completes.
+ *
+ * If the leading caller is cancelled, the callers that joined it are not: they start over,
+ * one of them becoming the new leader, and a streaming follower only gets the text past what
+ * it was already shown.
+ */
+public class CoalescingBackend implements LLMBackend {
+
+    private static final Logger LOG = Logger.getInstance(CoalescingBackend.class);
+
+    private final LLMBackend delegate;
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public CoalescingBackend(LLMBackend delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public String modelId() {
+        return delegate.modelId();
+    }
+
+    @Override
+    public String metrics() {
+        String inner = delegate.metrics();
+        return (inner.isEmpty() ? "" : inner + "; ") + "coalesced " + coalesced.get() + " of "
+                + (sent.get() + coalesced.get()) + " calls";
+    }
+
+    @Override
+    public String complete(LLMPrompt prompt) throws IOException {
+        return call(prompt, null);
+    }
+
+    @Override
+    public String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        return call(prompt, onToken);
+    }
+
+    private String call(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        String key = LineageResponseCache.key(delegate.modelId(), prompt.system, prompt.user);
+        // text this caller's consumer already got from flights whose leader was cancelled
+        AtomicLong delivered = new AtomicLong();
+        while (true) {
+            Consumer<String> consumer = onToken != null ? resuming(onToken, delivered) : null;
+            // the leader's listener is in place before the flight is published, so no follower comes first
+            Flight flight = new Flight(consumer);
+            Flight running = inFlight.putIfAbsent(key, flight);
+            if (running == null) {
+                return lead(key, flight, prompt, consumer);
+            }
+            LOG.debug("single-flight : joined a request in flight (" + coalesced.incrementAndGet()
+                    + " coalesced, " + sent.get() + " sent)");
+            try {
+                return running.join(consumer);
+            } catch (LeaderCancelledException e) {
+                // someone else's cancel is not this caller's; join the next flight or lead it
+                LOG.debug("single-flight : leader cancelled, retrying");
+            }
+        }
+    }
+
+    private String lead(String key, Flight flight, LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        sent.incrementAndGet();
+        try {
+            String text;
+            if (onToken != null) {
+                text = delegate.stream(prompt, flight::emit);
+            } else {
+                text = delegate.complete(prompt);
+            }
+            inFlight.remove(key, flight);
+            flight.result.complete(text);
+            return text;
+        } catch (IOException | RuntimeException e) {
+            // out of the map first, so followers that retry don't join this flight again
+            inFlight.remove(key, flight);
+            boolean cancelled = flight.leaderAborted || e instanceof CancellationException
+                    || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+            flight.result.completeExceptionally(cancelled ? new LeaderCancelledException(e) : e);
+            throw e;
+        }
+    }
+
+    /**
+     * Passes tokens on to {@code onToken}, first dropping as many characters as {@code delivered}
+     * says it already got from a cancelled flight, so a retried stream doesn't repeat them.
+     */
+    private static Consumer<String> resuming(Consumer<String> onToken, AtomicLong delivered) {
+        long skip = delivered.get();
+        long[] seen = {0};
+        return token -> {
+            long start = seen[0];
+            seen[0] += token.length();
+            if (seen[0] <= skip) return;
+            String rest = start >= skip ? token : token.substring((int) (skip - start));
+            delivered.addAndGet(rest.length());
+            onToken.accept(rest);
+        };
+    }
+
+    private static final class LeaderCancelledException extends IOException {
+        LeaderCancelledException(Throwable cause) {
+            super("coalesced LLM call cancelled by its leader", cause);
+        }
+    }
+
+    private static final class Flight {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        private final boolean streaming;
+        private final StringBuilder streamed = new StringBuilder();
+        private final List<Listener> listeners = new ArrayList<>();
+        // the leading caller's consumer; null for a non-streaming call
+        private final Listener leader;
+        // set when the leader's own consumer threw, i.e. the leader gave up on the call
+        volatile boolean leaderAborted;
+
+        Flight(Consumer<String> leaderToken) {
+            this.streaming = leaderToken != null;
+            this.leader = leaderToken != null ? new Listener(leaderToken) : null;
+            if (leader != null) listeners.add(leader);
+        }
+
+        void subscribe(Consumer<String> onToken) {
+            Listener listener = new Listener(onToken);
+            // holding the listener keeps emit from handing it new tokens before the backlog
+            synchronized (listener) {
+                String backlog;
+                synchronized (this) {
+                    backlog = streamed.toString();
+                    listeners.add(listener);
+                }
+                if (!backlog.isEmpty()) listener.accept(backlog);
+            }
+        }
+
+        void emit(String token) {
+            List<Listener> current;
+            synchronized (this) {
+                streamed.append(token);
+                current = new ArrayList<>(listeners);
+            }
+            // listeners run outside the lock, so a slow consumer doesn't hold up subscribing callers
+            for (Listener listener : current) {
+                try {
+                    listener.accept(token);
+                } catch (RuntimeException e) {
+                    // the leader's own consumer decides about its call; a failing follower just stops listening
+                    if (listener == leader) {
+                        leaderAborted = true;
+                        throw e;
+                    }
+                    synchronized (this) {
+                        listeners.remove(listener);
+                    }
+                }
+            }
+        }
+
+        String join(Consumer<String> onToken) throws IOException {
+            if (onToken != null && streaming) subscribe(onToken);
+            String text;
+            try {
+                text = result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a coalesced LLM call");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+            if (onToken != null && !streaming) onToken.accept(text);
+            return text;
+        }
+    }
+
+    private static final class Listener {
+        private final Consumer<String> onToken;
+
+        Listener(Consumer<String> onToken) {
+            this.onToken = onToken;
+        }
+
+        synchronized void accept(String token) {
+            onToken.accept(token);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.stream.JsonWriter;
+import com.intellij.openapi.diagnostic.Logger;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Google Generative Language API ({@code generateContent}, and {@code streamGenerateContent}
+ * as server-sent events). The API key goes in the {@code x-goog-api-key} header, so it never
+ * shows up in URLs, proxy logs or exception messages.
+ *
+ * The instructions go in {@code systemInstruction}, ahead of the changing user text, so the
+ * API's implicit prefix caching can serve them from cache. The instruction blocks are well below
+ * the minimum size of an explicit {@code cachedContents} resource, so none is created. Gemma
+ * models accept no system instruction; for them the instructions are prepended to the user text.
+ */
+public class GeminiBackend extends HttpLLMBackend {
+
+    private static final Logger LOG = Logger.getInstance(GeminiBackend.class);
+
+    private static final String BASE_URL = "https://generativelanguage.googleapis.com/v1beta/models/";
+    private static final String API_KEY_HEADER = "x-goog-api-key";
+
+    private final String baseUrl;
+    private final String apiKey;
+    private final boolean systemInstructionSupported;
+
+    public GeminiBackend(String apiKey, String model) {
+        this(BASE_URL, apiKey, model);
+    }
+
+    // the base URL is only overridden to point at a local stub server
+    GeminiBackend(String baseUrl, String apiKey, String model) {
+        super(model);
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+        this.apiKey = apiKey;
+        this.systemInstructionSupported = !model.toLowerCase(Locale.ROOT).startsWith("gemma");
+    }
+
+    @Override
+    public String name() {
+        return "gemini";
+    }
+
+    @Override
+    public String complete(LLMPrompt prompt) throws IOException {
+        Request request = new Request.Builder()
+                .url(baseUrl + modelId() + ":generateContent")
+                .header(API_KEY_HEADER, apiKey)
+                .post(jsonBody(writer -> request(writer, prompt)))
+                .build();
+        try (Response response = execute(request)) {
+            // pull the one field we need out of the stream instead of parsing the whole response
+            String text = JsonStreams.readString(response.body().charStream(),
+                    "candidates", "0", "content", "parts", "0", "text");
+            if (text == null) throw new IOException("Gemini response contained no candidate text");
+            return text;
+        }
+    }
+
+    @Override
+    public String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        Request request = new Request.Builder()
+                .url(baseUrl + modelId() + ":streamGenerateContent?alt=sse")
+                .header(API_KEY_HEADER, apiKey)
+                .post(jsonBody(writer -> request(writer, prompt)))
+                .build();
+        return readStream(request, onToken, line -> {
+            if (!line.startsWith("data:")) return null;
+            String data = line.substring(5);
+            if (line.contains("\"finishReason\"")) {
+                long promptTokens = JsonStreams.readLong(new StringReader(data), -1, "usageMetadata", "promptTokenCount");
+                long cachedTokens = JsonStreams.readLong(new StringReader(data), 0, "usageMetadata", "cachedContentTokenCount");
+                if (promptTokens >= 0) logPromptTokens(prompt, promptTokens);
+                if (cachedTokens > 0) LOG.debug("prompt tokens : " + cachedTokens + " served from cache");
+            }
+            return JsonStreams.readString(new StringReader(data), "candidates", "0", "content", "parts", "0", "text");
+        });
+    }
+
+    // {"systemInstruction": {...}, "contents":[{"role":"user","parts":[{"text": user}]}]}
+    private void request(JsonWriter writer, LLMPrompt prompt) throws IOException {
+        writer.beginObject();
+        String user = prompt.user;
+        if (prompt.system != null && systemInstructionSupported) {
+            writer.name("systemInstruction");
+            content(writer, null, prompt.system);
+        } else {
+            user = prompt.text();
+        }
+        writer.name("contents").beginArray();
+        content(writer, "user", user);
+        writer.endArray().endObject();
+    }
+
+    private static void content(JsonWriter writer, String role, String text) throws IOException {
+        writer.beginObject();
+        if (role != null) writer.name("role").value(role);
+        writer.name("parts").beginArray()
+                .beginObject().name("text").value(text).endObject()
+                .endArray().endObject();
+    }
+}
@@ -0,0 +1,315 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Project-wide lineage: the per-job graphs from {@link LineageIndex} merged into one
+ * {@link LineageGraph}, with every Hive table or storage path collapsed into a single shared
+ * dataset node. Job A's {@code saveAsTable("x")} and job B's {@code spark.table("x")} therefore
+ * meet at the same node, and the columns of {@code x} connect the two jobs' column lineage.
+ *
+ * Shared datasets are indexed by table name together with the jobs writing and reading them.
+ * The merged graph is kept up to date job by job: a job whose code changed, or that left the
+ * index, has its nodes and edges taken out and its new version merged in, and the rest of the
+ * graph is left alone. Nodes and edges are reference-counted per job, so a shared table stays
+ * as long as one merged job still declares it.
+ */
+public class GlobalLineageStore {
+
+    private static final Logger LOG = Logger.getInstance(GlobalLineageStore.class);
+
+    private static final String[] TABLE_PREFIXES = {"sink table:", "table:", "sink path:", "path:"};
+    // labels written by the LLM, e.g. spark.table("sales.orders") or write().parquet("/data/out")
+    private static final Pattern QUOTED_SOURCE = Pattern.compile(
+            "(?:table|saveAsTable|insertInto|toTable|parquet|csv|json|orc|load|save)\\(\\s*[\"']([^\"']+)[\"']");
+    private static final String JOB_SEPARATOR = "::";
+    // node and edge keys for reference counting; control characters never occur in names
+    private static final char COLUMN_SEPARATOR = '\u0000';
+    private static final char EDGE_SEPARATOR = '\u0001';
+
+    private final LineageIndex index;
+    private LineageGraph graph = new LineageGraph();
+    private LineageQueryEngine queryEngine;
+    private final Map<String, MergedJob> mergedJobs = new HashMap<>();   // method key -> what it contributed
+    private final Map<String, Integer> nodeRefs = new HashMap<>();       // node key -> jobs declaring it
+    private final Map<String, Integer> edgeRefs = new HashMap<>();       // edge key -> jobs declaring it
+    private final Map<String, TableUsage> tables = new TreeMap<>();
+
+    public GlobalLineageStore(Project project) {
+        this(LineageIndex.getInstance(project));
+    }
+
+    GlobalLineageStore(LineageIndex index) {
+        this.index = index;
+    }
+
+    public static GlobalLineageStore getInstance(Project project) {
+        return project.getService(GlobalLineageStore.class);
+    }
+
+    /**
+     * Brings the merged graph up to date with the lineage index. Cheap when nothing changed:
+     * one hash comparison per indexed job.
+     */
+    public synchronized void sync() {
+        Map<String, LineageIndex.Entry> current = new LinkedHashMap<>();
+        for (LineageIndex.Entry entry : index.entries()) {
+            current.put(entry.methodKey, entry);
+        }
+        // release every stale job first: node and edge IDs only shift once the graph is compacted
+        BitSet deadNodes = new BitSet();
+        BitSet deadEdges = new BitSet();
+        int removed = 0;
+        for (Iterator<Map.Entry<String, MergedJob>> it = mergedJobs.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, MergedJob> merged = it.next();
+            LineageIndex.Entry entry = current.get(merged.getKey());
+            if (entry != null && entry.codeHash.equals(merged.getValue().codeHash)) continue;
+            release(merged.getKey(), merged.getValue(), deadNodes, deadEdges);
+            it.remove();
+            removed++;
+        }
+        if (removed > 0) graph.remove(deadNodes, deadEdges);
+
+        int added = 0;
+        for (LineageIndex.Entry entry : current.values()) {
+            if (!mergedJobs.containsKey(entry.methodKey)) {
+                addJob(entry);
+                added++;
+            }
+        }
+        if (added > 0 || removed > 0) {
+            queryEngine = null;
+            LOG.debug("global lineage : removed " + removed + ", merged " + added + " jobs, " + graph.nodeCount()
+                    + " nodes, " + tables.size() + " shared tables");
+        }
+    }
+
+    public synchronized LineageGraph graph() {
+        sync();
+        return graph;
+    }
+
+    /** Shared tables and paths, keyed by normalized name. */
+    public synchronized Map<String, TableUsage> tables() {
+        sync();
+        return Collections.unmodifiableMap(new TreeMap<>(tables));
+    }
+
+    /**
+     * Traces a table or column across job boundaries and renders the result as markdown with a
+     * Mermaid diagram of everything up- and downstream of it. Returns null if nothing matches.
+     */
+    public synchronized String trace(String query) {
+        sync();
+        if (queryEngine == null) queryEngine = new LineageQueryEngine(graph);
+        List<Integer> matches = queryEngine.find(query);
+        if (matches.isEmpty()) return null;
+
+        BitSet impact = new BitSet(graph.nodeCount());
+        for (int node : matches) {
+            impact.or(queryEngine.impact(node));
+        }
+        LineageGraph sub = graph.subgraph(impact);
+        BitSet highlighted = new BitSet(sub.nodeCount());
+        for (int node : matches) {
+            highlighted.set(impact.get(0, node).cardinality());
+        }
+
+        Set<String> jobs = new TreeSet<>();
+        Set<String> shared = new TreeSet<>();
+        for (int n = impact.nextSetBit(0); n >= 0; n = impact.nextSetBit(n + 1)) {
+            if (graph.kind(n) != LineageGraph.DATASET) continue;
+            String key = graph.key(n);
+            int separator = key.indexOf(JOB_SEPARATOR);
+            if (separator >= 0) {
+                jobs.add(key.substring(0, separator));
+            } else if (tables.containsKey(key)) {
+                shared.add(key);
+            }
+        }
+
+        StringBuilder markdown = new StringBuilder("## Cross-job lineage: ").append(query.trim()).append("\n\n");
+        markdown.append("Jobs involved: ").append(jobs.isEmpty() ? "none" : String.join(", ", jobs)).append("\n\n");
+        if (!shared.isEmpty()) {
+            markdown.append("### Shared tables\n\n");
+            for (String table : shared) {
+                TableUsage usage = tables.get(table);
+                markdown.append("- ").append(table)
+                        .append(" - written by ").append(usage.writers.isEmpty() ? "no indexed job" : String.join(", ", usage.writers))
+                        .append("; read by ").append(usage.readers.isEmpty() ? "no indexed job" : String.join(", ", usage.readers))
+                        .append("\n");
+            }
+            markdown.append("\n");
+        }
+        markdown.append("```mermaid\n").append(sub.toMermaid(highlighted)).append("\n```\n");
+        return markdown.toString();
+    }
+
+    private void addJob(LineageIndex.Entry entry) {
+        LineageGraph staticGraph = entry.staticMermaid != null ? LineageGraph.fromMermaid(entry.staticMermaid) : null;
+        // the static graph names its tables exactly, so it wins; the LLM graph is the fallback
+        boolean fromLlm = staticGraph == null || staticGraph.isEmpty();
+        LineageGraph job = fromLlm ? LineageGraph.fromMarkdown(entry.lineage) : staticGraph;
+        String jobName = shortName(entry.methodKey);
+        MergedJob merged = new MergedJob(entry.codeHash);
+        int[] mapped = new int[job.nodeCount()];
+        String[] keys = new String[job.nodeCount()];
+        // owners are always created before their columns, so one pass in ID order is enough
+        for (int n = 0; n < job.nodeCount(); n++) {
+            if (job.kind(n) == LineageGraph.DATASET) {
+                String table = tableIdentity(job.label(n), fromLlm);
+                if (table == null) {
+                    keys[n] = entry.methodKey + JOB_SEPARATOR + job.key(n);
+                    mapped[n] = graph.dataset(keys[n], job.label(n) + " [" + jobName + "]");
+                } else {
+                    keys[n] = table;
+                    mapped[n] = graph.dataset(table, table);
+                    TableUsage usage = tables.computeIfAbsent(table, TableUsage::new);
+                    if (hasEdges(job, n, true)) usage.writers.add(entry.methodKey);
+                    if (hasEdges(job, n, false)) usage.readers.add(entry.methodKey);
+                    merged.tables.add(table);
+                }
+            } else {
+                keys[n] = columnKey(keys[job.owner(n)], job.key(n));
+                mapped[n] = graph.column(mapped[job.owner(n)], job.key(n));
+            }
+            merged.nodes.add(keys[n]);
+        }
+        for (int e = 0; e < job.edgeCount(); e++) {
+            graph.addEdge(mapped[job.edgeFrom(e)], mapped[job.edgeTo(e)], job.edgeLabel(e));
+            merged.edges.add(keys[job.edgeFrom(e)] + EDGE_SEPARATOR + keys[job.edgeTo(e)]);
+        }
+        for (String node : merged.nodes) nodeRefs.merge(node, 1, Integer::sum);
+        for (String edge : merged.edges) edgeRefs.merge(edge, 1, Integer::sum);
+        mergedJobs.put(entry.methodKey, merged);
+    }
+
+    // Drops a job's references and marks what no other merged job declares for removal
+    private void release(String methodKey, MergedJob job, BitSet deadNodes, BitSet deadEdges) {
+        for (String edge : job.edges) {
+            if (!unref(edgeRefs, edge)) continue;
+            int separator = edge.indexOf(EDGE_SEPARATOR);
+            int from = nodeId(edge.substring(0, separator));
+            int to = nodeId(edge.substring(separator + 1));
+            int id = from == LineageGraph.NONE || to == LineageGraph.NONE ? LineageGraph.NONE : graph.findEdge(from, to);
+            if (id != LineageGraph.NONE) deadEdges.set(id);
+        }
+        for (String node : job.nodes) {
+            if (!unref(nodeRefs, node)) continue;
+            int id = nodeId(node);
+            if (id != LineageGraph.NONE) deadNodes.set(id);
+        }
+        for (String table : job.tables) {
+            TableUsage usage = tables.get(table);
+            if (usage == null) continue;
+            usage.writers.remove(methodKey);
+            usage.readers.remove(methodKey);
+            if (!nodeRefs.containsKey(table)) tables.remove(table);
+        }
+    }
+
+    private static boolean unref(Map<String, Integer> refs, String key) {
+        if (refs.merge(key, -1, Integer::sum) > 0) return false;
+        refs.remove(key);
+        return true;
+    }
+
+    private static String columnKey(String datasetKey, String column) {
+        return datasetKey + COLUMN_SEPARATOR + column;
+    }
+
+    private int nodeId(String nodeKey) {
+        int separator = nodeKey.indexOf(COLUMN_SEPARATOR);
+        if (separator < 0) return graph.findDataset(nodeKey);
+        int dataset = graph.findDataset(nodeKey.substring(0, separator));
+        return dataset == LineageGraph.NONE ? LineageGraph.NONE
+                : graph.findColumn(dataset, nodeKey.substring(separator + 1));
+    }
+
+    // Whether the dataset, or any of its columns, has incoming (written) or outgoing (read) edges
+    private static boolean hasEdges(LineageGraph job, int dataset, boolean incoming) {
+        if ((incoming ? job.inDegree(dataset) : job.outDegree(dataset)) > 0) return true;
+        for (int i = 0; i < job.columnCount(dataset); i++) {
+            int column = job.columnAt(dataset, i);
+            if ((incoming ? job.inDegree(column) : job.outDegree(column)) > 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * The table name or storage path a dataset label refers to, normalized so the same table
+     * matches across jobs; null if the label is an intermediate DataFrame. Free-form LLM labels
+     * are also searched for a quoted table or path argument.
+     */
+    static String tableIdentity(String label, boolean llmLabel) {
+        String text = label.trim();
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (String prefix : TABLE_PREFIXES) {
+            if (lower.startsWith(prefix)) return normalize(text.substring(prefix.length()));
+        }
+        if (!llmLabel) return null;
+        Matcher matcher = QUOTED_SOURCE.matcher(text);
+        return matcher.find() ? normalize(matcher.group(1)) : null;
+    }
+
+    private static String normalize(String name) {
+        String result = name.trim().replace("`", "");
+        if (result.length() > 1 && (result.startsWith("\"") || result.startsWith("'"))) {
+            result = result.substring(1, result.length() - 1).trim();
+        }
+        if (result.indexOf('/') >= 0) {
+            // paths are case-sensitive; only trailing slashes differ between jobs
+            while (result.length() > 1 && result.endsWith("/")) result = result.substring(0, result.length() - 1);
+            return result;
+        }
+        return result.isEmpty() ? null : result.toLowerCase(Locale.ROOT);
+    }
+
+    // "com.acme.OrdersJob#run(...)" -> "OrdersJob#run"
+    private static String shortName(String methodKey) {
+        int paren = methodKey.indexOf('(');
+        String name = paren >= 0 ? methodKey.substring(0, paren) : methodKey;
+        int hash = name.indexOf('#');
+        int dot = name.lastIndexOf('.', hash >= 0 ? hash : name.length());
+        return dot >= 0 ? name.substring(dot + 1) : name;
+    }
+
+    // The nodes, edges and shared tables one indexed job contributed to the merged graph
+    private static final class MergedJob {
+        final String codeHash;
+        final Set<String> nodes = new LinkedHashSet<>();
+        final Set<String> edges = new LinkedHashSet<>();
+        final Set<String> tables = new HashSet<>();
+
+        MergedJob(String codeHash) {
+            this.codeHash = codeHash;
+        }
+    }
+
+    public static class TableUsage {
+        public final String name;
+        public final Set<String> writers = new TreeSet<>();
+        public final Set<String> readers = new TreeSet<>();
+
+        TableUsage(String name) {
+            this.name = name;
+        }
+    }
+}
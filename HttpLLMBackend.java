@@ -0,0 +1,187 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.stream.JsonWriter;
+import com.intellij.openapi.diagnostic.Logger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shared plumbing for the HTTP backends: streaming JSON request bodies, calls through the
+ * pooled {@link LLMHttpClient} that give up when the calling thread is interrupted, and the
+ * line-by-line loop for streamed answers.
+ */
+abstract class HttpLLMBackend implements LLMBackend {
+
+    private static final Logger LOG = Logger.getInstance(HttpLLMBackend.class);
+
+    static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+    // google.rpc.RetryInfo in a Gemini 429 body: "retryDelay": "31s"
+    private static final Pattern RETRY_DELAY = Pattern.compile("\"retryDelay\"\\s*:\\s*\"(\\d+(?:\\.\\d+)?)s\"");
+
+    private final String modelId;
+
+    HttpLLMBackend(String modelId) {
+        this.modelId = modelId;
+    }
+
+    @Override
+    public String modelId() {
+        return modelId;
+    }
+
+    @Override
+    public String toString() {
+        return name() + "/" + modelId;
+    }
+
+    // Extracts the text delta from one line of a streamed response; null for lines without text
+    @FunctionalInterface
+    interface ChunkParser {
+        String apply(String line) throws IOException;
+    }
+
+    /**
+     * Request body that encodes JSON straight into the connection while OkHttp sends it; the
+     * prompt is never copied into a payload string or byte array first.
+     */
+    static RequestBody jsonBody(JsonStreams.Body body) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                JsonStreams.write(new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8), body);
+            }
+        };
+    }
+
+    /**
+     * Executes the call and returns the response once its headers arrived, throwing
+     * {@link LLMHttpException} for a non-2xx status. Unlike {@code Call.execute()} this can be
+     * interrupted: the HTTP call is cancelled and the socket released, which is what lets a
+     * losing request in a race stop generating.
+     */
+    static Response execute(Request request) throws IOException {
+        Call call = LLMHttpClient.get().newCall(request);
+        CompletableFuture<Response> pending = new CompletableFuture<>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                pending.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                if (!pending.complete(response)) response.close();
+            }
+        });
+        Response response;
+        try {
+            response = pending.get();
+        } catch (InterruptedException e) {
+            call.cancel();
+            pending.thenAccept(Response::close);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("LLM call cancelled");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            try (Response failed = response) {
+                ResponseBody body = failed.body();
+                String message = body != null ? body.string() : "";
+                throw new LLMHttpException(failed.code(), message, retryAfterMillis(failed.header("Retry-After"), message));
+            }
+        }
+        return response;
+    }
+
+    /**
+     * The wait a throttled response asks for: the Retry-After header, in seconds or as an HTTP
+     * date, or else the {@code retryDelay} Gemini puts in the error body. -1 if neither is there.
+     */
+    static long retryAfterMillis(String header, String body) {
+        if (header != null && !header.isBlank()) {
+            String value = header.trim();
+            try {
+                return Math.max(0, Long.parseLong(value) * 1000);
+            } catch (NumberFormatException notSeconds) {
+                try {
+                    long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                    return Math.max(0, at - System.currentTimeMillis());
+                } catch (DateTimeParseException ignored) {
+                    // fall through to the body
+                }
+            }
+        }
+        Matcher delay = RETRY_DELAY.matcher(body);
+        return delay.find() ? (long) (Double.parseDouble(delay.group(1)) * 1000) : -1;
+    }
+
+    /**
+     * Reads a streamed answer line by line, handing each text delta to {@code onToken}, and
+     * returns the full text. Checks for interruption between lines.
+     */
+    static String readStream(Request request, Consumer<String> onToken, ChunkParser chunkParser) throws IOException {
+        long start = System.nanoTime();
+        StringBuilder fullText = new StringBuilder();
+        try (Response response = execute(request);
+             BufferedReader reader = new BufferedReader(response.body().charStream())) {
+            boolean first = true;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("LLM stream cancelled");
+                String chunk = chunkParser.apply(line);
+                if (chunk == null || chunk.isEmpty()) continue;
+                if (first) {
+                    LOG.debug("first token after " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                    first = false;
+                }
+                fullText.append(chunk);
+                onToken.accept(chunk);
+            }
+        }
+        LOG.debug("stream finished after " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return fullText.toString();
+    }
+
+    static void logPromptTokens(LLMPrompt prompt, long actual) {
+        LOG.debug("prompt tokens : actual " + actual + ", estimated " + PromptBuilder.estimateTokens(prompt.text()));
+    }
+
+    // [{"role":"system",...},{"role":"user",...}] as used by the Ollama and OpenAI chat APIs
+    static void chatMessages(JsonWriter writer, LLMPrompt prompt) throws IOException {
+        writer.name("messages").beginArray();
+        if (prompt.system != null) {
+            writer.beginObject().name("role").value("system").name("content").value(prompt.system).endObject();
+        }
+        writer.beginObject().name("role").value("user").name("content").value(prompt.user).endObject();
+        writer.endArray();
+    }
+}
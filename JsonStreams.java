@@ -0,0 +1,87 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Streaming JSON for LLM requests and responses. Request bodies are written token by token
+ * straight into the HTTP stream, so a large prompt is encoded once, with proper escaping,
+ * without building a payload string first. Responses are read up to the one field we need,
+ * skipping everything else, without building a Gson tree.
+ */
+final class JsonStreams {
+
+    @FunctionalInterface
+    interface Body {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private JsonStreams() {
+    }
+
+    static void write(Writer out, Body body) throws IOException {
+        // JsonWriter emits many short runs; unbuffered, OutputStreamWriter copies each into a fresh char[]
+        JsonWriter writer = new JsonWriter(out instanceof BufferedWriter ? out : new BufferedWriter(out, 8192));
+        body.write(writer);
+        writer.flush();
+    }
+
+    /**
+     * Reads the string (or number, as text) at {@code path}, e.g.
+     * {@code "candidates", "0", "content", "parts", "0", "text"}; numeric segments index into
+     * arrays. Returns null if the path doesn't exist. Stops reading once the value is found.
+     */
+    static String readString(Reader in, String... path) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        if (!seek(reader, path, 0)) return null;
+        JsonToken token = reader.peek();
+        return token == JsonToken.STRING || token == JsonToken.NUMBER ? reader.nextString() : null;
+    }
+
+    static long readLong(Reader in, long missing, String... path) throws IOException {
+        String value = readString(in, path);
+        if (value == null) return missing;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return missing;
+        }
+    }
+
+    private static boolean seek(JsonReader reader, String[] path, int depth) throws IOException {
+        if (depth == path.length) return true;
+        String segment = path[depth];
+        JsonToken token = reader.peek();
+        if (token == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals(segment)) return seek(reader, path, depth + 1);
+                reader.skipValue();
+            }
+            return false;
+        }
+        if (token == JsonToken.BEGIN_ARRAY && isIndex(segment)) {
+            int index = Integer.parseInt(segment);
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                if (i == index) return seek(reader, path, depth + 1);
+                reader.skipValue();
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIndex(String segment) {
+        if (segment.isEmpty()) return false;
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * One LLM provider behind {@link LLMClient}. Implementations hold only their configuration and
+ * are safe to call from several threads at once. Transport and HTTP failures are thrown as
+ * {@link IOException}; turning them into something the user sees is left to the caller.
+ */
+public interface LLMBackend {
+
+    /** Short provider name for logs, e.g. "ollama". */
+    String name();
+
+    /** Model the prompts go to; used for context-window budgeting and cache keys. */
+    String modelId();
+
+    String complete(LLMPrompt prompt) throws IOException;
+
+    /**
+     * Streams the answer, handing each text delta to {@code onToken} as it arrives, and
+     * returns the full text once the stream ends.
+     */
+    String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException;
+
+    /** One-line load and health summary for logs and progress text; empty if not tracked. */
+    default String metrics() {
+        return "";
+    }
+}
@@ -0,0 +1,68 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.yourplugin.sparklineageplugin.settings.LLMSettingsState;
+
+/**
+ * Builds the {@link LLMBackend} the settings ask for.
+ */
+public final class LLMBackends {
+
+    public static final String OLLAMA = "ollama";
+    public static final String GEMINI = "gemini";
+    public static final String OPENAI = "openai";
+    public static final String STUB = "stub";
+
+    public static final String[] KINDS = {OLLAMA, GEMINI, OPENAI, STUB};
+
+    private LLMBackends() {
+    }
+
+    /**
+     * The configured backend behind a {@link CoalescingBackend}, so identical prompts in flight
+     * share one call.
+     */
+    public static LLMBackend fromSettings(LLMSettingsState settings) {
+        return new CoalescingBackend(uncoalesced(settings));
+    }
+
+    /**
+     * A {@link RacingBackend} when race mode is on and names a second, different backend. Races
+     * are only won by answers containing a Mermaid diagram, which is what every lineage prompt
+     * asks for.
+     */
+    private static LLMBackend uncoalesced(LLMSettingsState settings) {
+        LLMBackend primary = create(settings.backend, settings);
+        if (!settings.raceEnabled || settings.raceBackend == null || settings.raceBackend.equals(settings.backend)) {
+            return primary;
+        }
+        LLMBackend second = create(settings.raceBackend, settings);
+        String modelId = PromptBuilder.contextWindow(second.modelId()) < PromptBuilder.contextWindow(primary.modelId())
+                ? second.modelId() : primary.modelId();
+        return new RacingBackend(modelId, AppExecutorUtil.getAppExecutorService(),
+                text -> MermaidValidator.extractMermaid(text) != null, primary, second);
+    }
+
+    /**
+     * The backend of the given kind behind a {@link ResilientBackend}, which adds the
+     * concurrency limit, retries and circuit breaker.
+     */
+    public static LLMBackend create(String kind, LLMSettingsState settings) {
+        return new ResilientBackend(connect(kind, settings));
+    }
+
+    private static LLMBackend connect(String kind, LLMSettingsState settings) {
+        switch (kind) {
+            case OLLAMA:
+                return new OllamaBackend(settings.ollamaUrl, settings.ollamaModel, settings.ollamaKeepAlive);
+            case GEMINI:
+                return new GeminiBackend(settings.geminiApiKey(), settings.geminiModel);
+            case OPENAI:
+                return new OpenAICompatibleBackend(settings.openAiUrl, settings.openAiApiKey(), settings.openAiModel);
+            case STUB:
+                return new OpenAICompatibleBackend(OllamaBackend.trimSlash(settings.stubUrl) + "/v1", "", "stub");
+            default:
+                throw new IllegalArgumentException("Unknown LLM backend: " + kind);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.yourplugin.sparklineageplugin;
+
+/**
+ * An LLM call failed: the backend was unreachable, refused the request or broke off the answer.
+ * Thrown by {@link LLMClient} instead of returning the failure as text, so an error can never be
+ * shown, repaired, cached or indexed as if it were lineage.
+ */
+public class LLMException extends RuntimeException {
+
+    public LLMException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,61 @@
+package com.yourplugin.sparklineageplugin;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the single OkHttpClient every LLM call goes through, so back-to-back prompts
+ * reuse pooled keep-alive connections (and HTTP/2 over TLS where the backend offers it)
+ * instead of paying TCP/TLS setup on every request.
+ */
+public class LLMHttpClient {
+
+    public static int connectTimeoutSeconds = 10;
+    public static int writeTimeoutSeconds = 60;
+    // LLM generations are slow; the read timeout is per socket read, so streaming keeps it alive
+    public static int readTimeoutSeconds = 300;
+    public static int maxIdleConnections = 8;
+    public static int keepAliveMinutes = 5;
+
+    private static volatile OkHttpClient client;
+
+    public static OkHttpClient get() {
+        OkHttpClient current = client;
+        if (current == null) {
+            synchronized (LLMHttpClient.class) {
+                current = client;
+                if (current == null) {
+                    current = newClient();
+                    client = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Rebuilds the shared client after the timeout or pool fields have been changed.
+     */
+    public static synchronized void reconfigure() {
+        OkHttpClient old = client;
+        client = newClient();
+        if (old != null) {
+            old.connectionPool().evictAll();
+        }
+    }
+
+    static OkHttpClient newClient() {
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMinutes, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectTimeout(connectTimeoutSeconds, TimeUnit.SECONDS)
+                .writeTimeout(writeTimeoutSeconds, TimeUnit.SECONDS)
+                .readTimeout(readTimeoutSeconds, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+}
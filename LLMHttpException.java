@@ -0,0 +1,33 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.io.IOException;
+
+/**
+ * A backend answered with a non-2xx status. Keeps the status code, and how long the server
+ * asked us to wait before retrying, so callers can tell throttling and server errors apart
+ * from bad requests.
+ */
+public class LLMHttpException extends IOException {
+
+    private final int code;
+    private final long retryAfterMillis;
+
+    public LLMHttpException(int code, String message) {
+        this(code, message, -1);
+    }
+
+    public LLMHttpException(int code, String message, long retryAfterMillis) {
+        super("HTTP " + code + (message == null || message.isEmpty() ? "" : " " + message));
+        this.code = code;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    /** The server's requested wait before retrying, or -1 if it didn't say. */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
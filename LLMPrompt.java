@@ -0,0 +1,41 @@
+package com.yourplugin.sparklineageplugin;
+
+/**
+ * A prompt split into its stable instructions, sent as the system message, and the part that
+ * changes from call to call. The instructions go first and are byte-identical on every call, so
+ * a backend with prefix caching (Ollama's KV cache, Gemini cached content, OpenAI's automatic
+ * prompt caching) only has to encode the user part.
+ */
+public final class LLMPrompt {
+
+    /** Stable instructions; null if the prompt has none. */
+    public final String system;
+    public final String user;
+
+    private LLMPrompt(String system, String user) {
+        this.system = system;
+        this.user = user;
+    }
+
+    public static LLMPrompt of(String system, String user) {
+        return new LLMPrompt(system, user);
+    }
+
+    public static LLMPrompt user(String user) {
+        return new LLMPrompt(null, user);
+    }
+
+    /** System and user part as one text, for backends without system messages. */
+    public String text() {
+        return system == null ? user : system + "\n\n" + user;
+    }
+
+    public int length() {
+        return (system == null ? 0 : system.length()) + user.length();
+    }
+
+    @Override
+    public String toString() {
+        return text();
+    }
+}
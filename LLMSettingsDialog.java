@@ -0,0 +1,101 @@
+package com.yourplugin.sparklineageplugin.ui;
+
+import com.intellij.openapi.ui.DialogWrapper;
+import com.yourplugin.sparklineageplugin.LLMBackends;
+import com.yourplugin.sparklineageplugin.settings.LLMSettingsState;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+
+public class LLMSettingsDialog extends DialogWrapper {
+
+    private final LLMSettingsState state;
+    private JPanel contentPane;
+    private JComboBox<String> backendCombo;
+    private JTextField ollamaUrlField;
+    private JTextField ollamaModelField;
+    private JTextField ollamaKeepAliveField;
+    private JPasswordField geminiApiKeyField;
+    private JTextField geminiModelField;
+    private JTextField openAiUrlField;
+    private JPasswordField openAiApiKeyField;
+    private JTextField openAiModelField;
+    private JTextField stubUrlField;
+    private JCheckBox raceCheckBox;
+    private JComboBox<String> raceBackendCombo;
+
+    public LLMSettingsDialog() {
+        super(true);
+        setTitle("Spark Lineage LLM Settings");
+        state = LLMSettingsState.getInstance();
+        initUI();
+        init();
+    }
+
+    private void initUI() {
+        contentPane = new JPanel(new GridLayout(13, 2));
+        backendCombo = new JComboBox<>(LLMBackends.KINDS);
+        ollamaUrlField = new JTextField(state.ollamaUrl);
+        ollamaModelField = new JTextField(state.ollamaModel);
+        ollamaKeepAliveField = new JTextField(state.ollamaKeepAlive);
+        geminiApiKeyField = new JPasswordField(state.geminiApiKey());
+        geminiModelField = new JTextField(state.geminiModel);
+        openAiUrlField = new JTextField(state.openAiUrl);
+        openAiApiKeyField = new JPasswordField(state.openAiApiKey());
+        openAiModelField = new JTextField(state.openAiModel);
+        stubUrlField = new JTextField(state.stubUrl);
+        raceCheckBox = new JCheckBox("Also send to", state.raceEnabled);
+        raceBackendCombo = new JComboBox<>(LLMBackends.KINDS);
+
+        backendCombo.setSelectedItem(state.backend);
+        raceBackendCombo.setSelectedItem(state.raceBackend);
+
+        contentPane.add(new JLabel("Backend:"));
+        contentPane.add(backendCombo);
+        contentPane.add(new JLabel("Ollama URL:"));
+        contentPane.add(ollamaUrlField);
+        contentPane.add(new JLabel("Ollama model:"));
+        contentPane.add(ollamaModelField);
+        contentPane.add(new JLabel("Ollama keep-alive:"));
+        contentPane.add(ollamaKeepAliveField);
+        contentPane.add(new JLabel("Gemini API key:"));
+        contentPane.add(geminiApiKeyField);
+        contentPane.add(new JLabel("Gemini model:"));
+        contentPane.add(geminiModelField);
+        contentPane.add(new JLabel("OpenAI-compatible URL:"));
+        contentPane.add(openAiUrlField);
+        contentPane.add(new JLabel("OpenAI API key:"));
+        contentPane.add(openAiApiKeyField);
+        contentPane.add(new JLabel("OpenAI model:"));
+        contentPane.add(openAiModelField);
+        contentPane.add(new JLabel("Stub server URL:"));
+        contentPane.add(stubUrlField);
+        contentPane.add(new JLabel("Race mode (first valid answer wins):"));
+        contentPane.add(raceCheckBox);
+        contentPane.add(new JLabel("Race against:"));
+        contentPane.add(raceBackendCombo);
+    }
+
+    @Override
+    protected @Nullable JComponent createCenterPanel() {
+        return contentPane;
+    }
+
+    @Override
+    protected void doOKAction() {
+        state.backend = (String) backendCombo.getSelectedItem();
+        state.ollamaUrl = ollamaUrlField.getText().trim();
+        state.ollamaModel = ollamaModelField.getText().trim();
+        state.ollamaKeepAlive = ollamaKeepAliveField.getText().trim();
+        state.storeGeminiApiKey(new String(geminiApiKeyField.getPassword()).trim());
+        state.geminiModel = geminiModelField.getText().trim();
+        state.openAiUrl = openAiUrlField.getText().trim();
+        state.storeOpenAiApiKey(new String(openAiApiKeyField.getPassword()).trim());
+        state.openAiModel = openAiModelField.getText().trim();
+        state.stubUrl = stubUrlField.getText().trim();
+        state.raceEnabled = raceCheckBox.isSelected();
+        state.raceBackend = (String) raceBackendCombo.getSelectedItem();
+        super.doOKAction();
+    }
+}
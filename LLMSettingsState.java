@@ -0,0 +1,98 @@
+package com.yourplugin.sparklineageplugin.settings;
+
+import com.intellij.credentialStore.CredentialAttributes;
+import com.intellij.credentialStore.CredentialAttributesKt;
+import com.intellij.ide.passwordSafe.PasswordSafe;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.*;
+import com.intellij.util.xmlb.XmlSerializerUtil;
+
+/**
+ * Which LLM backend the lineage prompts go to, and how to reach each one. API keys are kept in
+ * the IDE password safe, never in SparkLineageLLM.xml.
+ */
+@State(
+        name = "SparkLineageLLMSettings",
+        storages = {@Storage("SparkLineageLLM.xml")}
+)
+public class LLMSettingsState implements PersistentStateComponent<LLMSettingsState> {
+
+    // "ollama", "gemini", "openai" or "stub"
+    public String backend = "gemini";
+
+    public String ollamaUrl = "http://localhost:11434";
+    public String ollamaModel = "gemma3:4b";
+    // keeps the model, and the KV cache of the shared instruction prefix, loaded between calls
+    public String ollamaKeepAlive = "30m";
+
+    // only read to move a key saved by an older version into the password safe; see loadState
+    public String geminiApiKey = "";
+    public String geminiModel = "gemma-3-4b-it";
+
+    public String openAiUrl = "https://api.openai.com/v1";
+    // as geminiApiKey
+    public String openAiApiKey = "";
+    public String openAiModel = "gpt-4o";
+
+    // a local StubLLMServer
+    public String stubUrl = "http://127.0.0.1:18080";
+
+    // send every prompt to raceBackend as well and keep whichever answers first
+    public boolean raceEnabled = false;
+    public String raceBackend = "ollama";
+
+    public static LLMSettingsState getInstance() {
+        // outside the IDE (benchmarks, the stub server) there is no application to ask
+        if (ApplicationManager.getApplication() == null) return new LLMSettingsState();
+        return ApplicationManager.getApplication().getService(LLMSettingsState.class);
+    }
+
+    @Override
+    public LLMSettingsState getState() {
+        return this;
+    }
+
+    @Override
+    public void loadState(LLMSettingsState state) {
+        XmlSerializerUtil.copyBean(state, this);
+        if (!geminiApiKey.isEmpty()) {
+            storeGeminiApiKey(geminiApiKey);
+            geminiApiKey = "";
+        }
+        if (!openAiApiKey.isEmpty()) {
+            storeOpenAiApiKey(openAiApiKey);
+            openAiApiKey = "";
+        }
+    }
+
+    public String geminiApiKey() {
+        return secret("gemini");
+    }
+
+    public void storeGeminiApiKey(String key) {
+        storeSecret("gemini", key);
+    }
+
+    public String openAiApiKey() {
+        return secret("openai");
+    }
+
+    public void storeOpenAiApiKey(String key) {
+        storeSecret("openai", key);
+    }
+
+    private static CredentialAttributes credentials(String backend) {
+        return new CredentialAttributes(CredentialAttributesKt.generateServiceName("Spark Lineage", backend + " API key"));
+    }
+
+    private static String secret(String backend) {
+        if (ApplicationManager.getApplication() == null) return "";
+        String key = PasswordSafe.getInstance().getPassword(credentials(backend));
+        return key != null ? key : "";
+    }
+
+    private static void storeSecret(String backend, String key) {
+        if (ApplicationManager.getApplication() == null) return;
+        PasswordSafe.getInstance().setPassword(credentials(backend), key == null || key.isEmpty() ? null : key);
+    }
+}
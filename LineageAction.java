@@ -1,16 +1,42 @@
 package com.yourplugin.sparklineageplugin;
 
 import com.intellij.openapi.actionSystem.*;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
 import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 
 public class LineageAction extends AnAction {
+
+    private static final Logger LOG = Logger.getInstance(LineageAction.class);
+
+    // how often the first answer was good enough (possibly after local repair) to skip the follow-up call
+    private static final AtomicInteger REFINEMENTS_SKIPPED = new AtomicInteger();
+    private static final AtomicInteger REFINEMENTS_SENT = new AtomicInteger();
+
     @Override
     public void actionPerformed(AnActionEvent e) {
+        long edtStart = System.nanoTime();
         Project project = e.getProject();
         Editor editor = e.getData(CommonDataKeys.EDITOR);
         PsiFile psiFile = e.getData(CommonDataKeys.PSI_FILE);
@@ -22,30 +48,222 @@ public class LineageAction extends AnAction {
         int offset = editor.getCaretModel().getOffset();
         PsiElement element = psiFile.findElementAt(offset);
 
-        String fullCode = null;
-
         PsiMethod method = PsiTreeUtil.getParentOfType(element, PsiMethod.class);
         if (method == null) {
             Messages.showErrorDialog("Please place the cursor inside a method.", "No Method Found");
             return;
         }
-        fullCode = new SparkCodeCollector().collectFullMethodContext(method);
+
+        SmartPsiElementPointer<PsiMethod> methodPointer =
+                SmartPointerManager.getInstance(project).createSmartPsiElementPointer(method);
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Running Spark lineage", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                runLineage(project, methodPointer, indicator);
+            }
+        });
+
+        // Only the caret lookup and task scheduling happen on the EDT now
+        LOG.debug("EDT blocked for " + (System.nanoTime() - edtStart) / 1_000_000 + " ms");
+    }
+
+    private void runLineage(Project project, SmartPsiElementPointer<PsiMethod> methodPointer, ProgressIndicator indicator) {
+        long start = System.nanoTime();
+        indicator.setIndeterminate(false);
+
+        indicator.setText("Collecting method context...");
+        indicator.setFraction(0.0);
+        String fullCode = new SparkCodeCollector().collectFullMethodContextParallel(methodPointer, indicator);
+        LOG.debug("context collected in " + (System.nanoTime() - start) / 1_000_000 + " ms");
 
         if (fullCode == null || fullCode.isEmpty()) {
-            Messages.showErrorDialog("Could not collect method context.", "Collection Failed");
+            ApplicationManager.getApplication().invokeLater(() ->
+                    Messages.showErrorDialog(project, "Could not collect method context.", "Collection Failed"));
+            return;
+        }
+
+        indicator.checkCanceled();
+        // Open the result panel up front so tokens show up as soon as the model starts answering
+        AtomicReference<LineageResultPanelEnhanced> panelRef = new AtomicReference<>();
+        ApplicationManager.getApplication().invokeAndWait(() ->
+                panelRef.set(LineageResultPanelEnhanced.showStreaming(project, indicator)));
+        LineageResultPanelEnhanced panel = panelRef.get();
+
+        // The PSI-only analysis takes milliseconds, so show it right away and use it as the LLM's skeleton
+        StaticLineageAnalyzer.Result staticLineage = ReadAction.compute(() -> {
+            PsiMethod method = methodPointer.getElement();
+            return method == null ? null : new StaticLineageAnalyzer().analyze(method);
+        });
+        String staticMermaid = staticLineage != null && !staticLineage.isEmpty() ? staticLineage.toMermaid() : null;
+        if (staticMermaid != null) {
+            panel.appendStreamingText(staticLineage.toMarkdown() + "\n\n--- LLM analysis ---\n\n");
+        }
+
+        try {
+            runLLM(project, methodPointer, fullCode, staticMermaid, panel, indicator);
+        } catch (LLMException e) {
+            // nothing to validate, repair or remember; the panel keeps whatever streamed in so far
+            LOG.warn("lineage LLM call failed : " + e.getMessage());
+            ApplicationManager.getApplication().invokeLater(() ->
+                    Messages.showErrorDialog(project, "The LLM call failed: " + e.getMessage(), "Lineage Failed"));
+        }
+        LOG.debug("lineage finished in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    private void runLLM(Project project, SmartPsiElementPointer<PsiMethod> methodPointer, String fullCode,
+                        String staticMermaid, LineageResultPanelEnhanced panel, ProgressIndicator indicator) {
+        LineageResponseCache cache = LineageResponseCache.getInstance(project);
+        int codeBudget = PromptBuilder.codeBudget(LLMClient.currentModelId());
+        if (PromptBuilder.estimateTokens(fullCode) > codeBudget) {
+            // too big for one prompt: analyze per-method chunks in parallel and merge the graphs locally
+            indicator.setText("Running chunked lineage...");
+            indicator.setFraction(0.2);
+            ChunkedLineageRunner.Result merged = new ChunkedLineageRunner(
+                    Math.min(codeBudget, ChunkedLineageRunner.DEFAULT_CHUNK_TOKENS))
+                    .run(fullCode, (chunk, chunkPrompt) -> cachedPrompt(cache, chunkPrompt, chunk, null, indicator),
+                            panel::appendStreamingText, indicator);
+            indicator.setFraction(1.0);
+            panel.finishStreaming(merged.markdown);
+            // the next run retries the failed parts; everything else comes from the cache
+            if (merged.isComplete()) {
+                remember(project, methodPointer, fullCode, staticMermaid, merged.markdown);
+            }
             return;
         }
 
-        String prompt = PromptBuilder.buildPrompt(fullCode);
-        String result = LLMClient.sendPrompt(prompt);
-        System.out.println("first result is : "+ result);
-        String secondPrompt = "This was the previous response:\n\n" + result +
-                "\n\n Mermaid should contain **all the column info** as well. \n" +
-                "Give me detailed columns of each dataset** and **mappings till the final dataset for all. \n"+
-                "Ensure all quotes are escaped, all column mappings are present, and syntax is correct for mermaid.";
-        result=LLMClient.sendPrompt(secondPrompt);
-        System.out.println("second result is : "+ result);
-        LineageResultPanel.show(project, result);
+        indicator.setText("Waiting for lineage from LLM...");
+        indicator.setFraction(0.2);
+        LLMPrompt prompt = PromptBuilder.buildPrompt(fullCode, staticMermaid);
+        String result = cachedPrompt(cache, prompt, fullCode, panel, indicator);
+
+        // Validate locally first; a second round trip is only worth it for problems the parser can't fix
+        indicator.setText("Validating Mermaid diagram...");
+        indicator.setFraction(0.6);
+        String firstMermaid = MermaidValidator.extractMermaid(result);
+        MermaidParser.Result parsed = firstMermaid != null ? MermaidParser.parse(firstMermaid) : null;
+        List<String> problems = remainingProblems(parsed);
+        String finalResult;
+        if (problems.isEmpty()) {
+            REFINEMENTS_SKIPPED.incrementAndGet();
+            finalResult = parsed.isValid() ? result : replaceMermaid(result, parsed.repaired);
+        } else {
+            REFINEMENTS_SENT.incrementAndGet();
+            indicator.setText("Repairing Mermaid diagram...");
+            LLMPrompt repairPrompt = PromptBuilder.buildRepairPrompt(
+                    parsed != null ? parsed.repaired : null, problems, result, fullCode);
+            panel.resetStreamingText();
+            String repairedMermaid;
+            try {
+                repairedMermaid = MermaidValidator.extractMermaid(cachedPrompt(cache, repairPrompt, fullCode, panel, indicator));
+            } catch (LLMException e) {
+                // the first answer is still worth showing
+                LOG.warn("lineage repair call failed : " + e.getMessage());
+                repairedMermaid = null;
+            }
+            finalResult = repairedMermaid != null ? replaceMermaid(result, repairedMermaid) : result;
+            LOG.debug("repair problems : " + problems);
+        }
+        LOG.debug("second LLM call skipped " + REFINEMENTS_SKIPPED.get() + " of "
+                + (REFINEMENTS_SKIPPED.get() + REFINEMENTS_SENT.get()) + " runs");
+        indicator.setFraction(1.0);
+        LOG.debug("lineage cache hits=" + cache.getHits() + " misses=" + cache.getMisses());
+
+        panel.finishStreaming(finalResult);
+        remember(project, methodPointer, fullCode, staticMermaid, finalResult);
+    }
+
+    /**
+     * What is still wrong with the first answer after local repair: no diagram at all, a
+     * diagram the parser couldn't turn into any nodes, or no column-to-column edges.
+     */
+    private static List<String> remainingProblems(MermaidParser.Result parsed) {
+        List<String> problems = new ArrayList<>();
+        if (parsed == null) {
+            problems.add("the answer contains no ```mermaid code block");
+            return problems;
+        }
+        LineageGraph graph = LineageGraph.fromMermaid(parsed.repaired);
+        if (graph.isEmpty()) {
+            problems.add("the diagram has no nodes");
+            for (MermaidParser.Diagnostic diagnostic : parsed.diagnostics) {
+                problems.add(diagnostic.toString());
+            }
+            return problems;
+        }
+        boolean columnEdges = false;
+        for (int e = 0; e < graph.edgeCount() && !columnEdges; e++) {
+            columnEdges = graph.kind(graph.edgeFrom(e)) == LineageGraph.COLUMN
+                    && graph.kind(graph.edgeTo(e)) == LineageGraph.COLUMN;
+        }
+        if (!columnEdges) {
+            problems.add("there are no column-level mappings: datasets don't list their columns as subgraph nodes, "
+                    + "or no edge connects a source column to a target column");
+        }
+        return problems;
+    }
+
+    // Swaps the diagram inside an LLM answer, keeping the description around it
+    private static String replaceMermaid(String markdown, String mermaid) {
+        int start = markdown.indexOf("```mermaid");
+        int body = start < 0 ? -1 : markdown.indexOf('\n', start);
+        int end = body < 0 ? -1 : markdown.indexOf("```", body);
+        if (end < 0) return "```mermaid\n" + mermaid + "\n```\n\n" + markdown;
+        return markdown.substring(0, body + 1) + mermaid + "\n" + markdown.substring(end);
+    }
+
+    // Keeps the project-wide lineage index current with what the user just ran by hand
+    private static void remember(Project project, SmartPsiElementPointer<PsiMethod> methodPointer,
+                                 String code, String staticMermaid, String lineage) {
+        String[] keyAndPath = ReadAction.compute(() -> {
+            PsiMethod method = methodPointer.getElement();
+            if (method == null) return null;
+            VirtualFile file = method.getContainingFile() != null ? method.getContainingFile().getVirtualFile() : null;
+            return new String[]{LineageIndex.methodKey(method), file != null ? file.getPath() : null};
+        });
+        if (keyAndPath != null) {
+            LineageIndex.getInstance(project).put(keyAndPath[0], keyAndPath[1], code, staticMermaid, lineage);
+        }
+    }
+
+    // An unchanged method hits the cache and skips the LLM round trip entirely.
+    // With a null panel the call runs blocking on the current thread (used by the chunk workers).
+    private static String cachedPrompt(LineageResponseCache cache, LLMPrompt prompt, String code,
+                                       LineageResultPanelEnhanced panel, ProgressIndicator indicator) {
+        String key = LineageResponseCache.key(LLMClient.currentModelId(), prompt.text(), code);
+        String cached = cache.get(key);
+        if (cached != null) {
+            if (panel != null) panel.appendStreamingText(cached);
+            return cached;
+        }
+        String result = panel != null
+                ? awaitPrompt(() -> LLMClient.sendPromptStreaming(prompt, panel::appendStreamingText), indicator)
+                : LLMClient.sendPrompt(prompt);
+        cache.put(key, result);
+        return result;
+    }
+
+    /**
+     * Runs a blocking LLM call on a pooled thread and waits for it, so pressing
+     * "Cancel" on the progress bar returns immediately instead of after the HTTP read.
+     * Cancelling also interrupts the worker, which cancels the HTTP call so the model
+     * stops generating instead of streaming into a panel nobody reads. A failed call
+     * surfaces as its {@link LLMException}.
+     */
+    private static String awaitPrompt(Callable<String> call, ProgressIndicator indicator) {
+        Future<String> future = AppExecutorUtil.getAppExecutorService().submit(call);
+        try {
+            return ProgressIndicatorUtils.awaitWithCheckCanceled(future, indicator);
+        } catch (ProcessCanceledException e) {
+            future.cancel(true);
+            throw e;
+        } catch (RuntimeException e) {
+            // the failure comes back wrapped in the future's ExecutionException
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof LLMException) throw (LLMException) cause;
+            }
+            throw e;
+        }
     }
 
 
@@ -54,4 +272,4 @@ public class LineageAction extends AnAction {
         PsiElement element = e.getData(CommonDataKeys.PSI_ELEMENT);
         e.getPresentation().setEnabledAndVisible(element instanceof PsiMethod);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,591 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Typed lineage graph: dataset nodes, column nodes owned by a dataset, and transformation edges
+ * between them. Everything is stored in primitive arrays indexed by int IDs, with all names and
+ * labels interned once, so graphs with tens of thousands of columns stay a few MB. Adjacency is
+ * kept in CSR form (offset + target arrays), built lazily after the last mutation.
+ *
+ * LLM output is parsed into this model once; the Mermaid, HTML and export paths render from it.
+ */
+public class LineageGraph {
+
+    public static final byte DATASET = 0;
+    public static final byte COLUMN = 1;
+    public static final int NONE = -1;
+
+    // interned strings
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private String[] strings = new String[64];
+    private int stringCount;
+
+    // nodes
+    private int nodeCount;
+    private byte[] nodeKind = new byte[64];
+    private int[] nodeKey = new int[64];
+    private int[] nodeLabel = new int[64];
+    private int[] nodeOwner = new int[64];
+    // the id a parsed node had in the source diagram, NONE for nodes built in code
+    private int[] nodeSourceId = new int[64];
+    private final LongIntMap nodeIndex = new LongIntMap();
+
+    // edges
+    private int edgeCount;
+    private int[] edgeFrom = new int[64];
+    private int[] edgeTo = new int[64];
+    private int[] edgeLabel = new int[64];
+    private final LongIntMap edgeIndex = new LongIntMap();
+
+    // CSR adjacency, rebuilt on demand
+    private boolean indexed;
+    private int[] outStart;
+    private int[] outEdges;
+    private int[] inStart;
+    private int[] inEdges;
+    private int[] childStart;
+    private int[] children;
+
+    // classDef/class/style/click lines from the source diagram, replayed verbatim when rendering;
+    // they address nodes by their source id, which rendering keeps
+    private final List<String> directives = new ArrayList<>();
+
+    // ---- building ------------------------------------------------------------------------
+
+    public int dataset(String key, String label) {
+        return node(DATASET, NONE, key, label);
+    }
+
+    public int column(int dataset, String name) {
+        return node(COLUMN, dataset, name, name);
+    }
+
+    private int node(byte kind, int owner, String key, String label) {
+        int keyId = intern(key);
+        long lookup = ((long) (owner + 1) << 32) | (keyId & 0xffffffffL);
+        int existing = nodeIndex.get(lookup);
+        if (existing != NONE) {
+            if (label != null && !label.equals(key) && nodeLabel[existing] == nodeKey[existing]) {
+                nodeLabel[existing] = intern(label);
+            }
+            return existing;
+        }
+        if (nodeCount == nodeKind.length) {
+            int size = nodeCount * 2;
+            nodeKind = Arrays.copyOf(nodeKind, size);
+            nodeKey = Arrays.copyOf(nodeKey, size);
+            nodeLabel = Arrays.copyOf(nodeLabel, size);
+            nodeOwner = Arrays.copyOf(nodeOwner, size);
+            nodeSourceId = Arrays.copyOf(nodeSourceId, size);
+        }
+        int id = nodeCount++;
+        nodeKind[id] = kind;
+        nodeKey[id] = keyId;
+        nodeLabel[id] = label != null ? intern(label) : keyId;
+        nodeOwner[id] = owner;
+        nodeSourceId[id] = NONE;
+        nodeIndex.put(lookup, id);
+        indexed = false;
+        return id;
+    }
+
+    /**
+     * Adds a transformation edge; a second edge between the same two nodes is ignored.
+     */
+    public int addEdge(int from, int to, String label) {
+        long lookup = ((long) from << 32) | (to & 0xffffffffL);
+        int existing = edgeIndex.get(lookup);
+        if (existing != NONE) return existing;
+        if (edgeCount == edgeFrom.length) {
+            int size = edgeCount * 2;
+            edgeFrom = Arrays.copyOf(edgeFrom, size);
+            edgeTo = Arrays.copyOf(edgeTo, size);
+            edgeLabel = Arrays.copyOf(edgeLabel, size);
+        }
+        int id = edgeCount++;
+        edgeFrom[id] = from;
+        edgeTo[id] = to;
+        edgeLabel[id] = label == null || label.isEmpty() ? NONE : intern(label);
+        edgeIndex.put(lookup, id);
+        indexed = false;
+        return id;
+    }
+
+    public void addDirective(String line) {
+        directives.add(line);
+    }
+
+    // The first id a node was written with wins; later aliases of the same column are dropped
+    private void sourceId(int node, String id) {
+        if (nodeSourceId[node] == NONE) nodeSourceId[node] = intern(id);
+    }
+
+    private int intern(String value) {
+        Integer id = stringIds.get(value);
+        if (id != null) return id;
+        if (stringCount == strings.length) strings = Arrays.copyOf(strings, stringCount * 2);
+        strings[stringCount] = value;
+        stringIds.put(value, stringCount);
+        return stringCount++;
+    }
+
+    // ---- queries -------------------------------------------------------------------------
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int edgeCount() {
+        return edgeCount;
+    }
+
+    public boolean isEmpty() {
+        return nodeCount == 0;
+    }
+
+    public byte kind(int node) {
+        return nodeKind[node];
+    }
+
+    public String key(int node) {
+        return strings[nodeKey[node]];
+    }
+
+    public String label(int node) {
+        return strings[nodeLabel[node]];
+    }
+
+    public int owner(int node) {
+        return nodeOwner[node];
+    }
+
+    public int edgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    public int edgeTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    public String edgeLabel(int edge) {
+        return edgeLabel[edge] == NONE ? null : strings[edgeLabel[edge]];
+    }
+
+    public int findDataset(String key) {
+        Integer keyId = stringIds.get(key);
+        return keyId == null ? NONE : nodeIndex.get(keyId & 0xffffffffL);
+    }
+
+    public int findColumn(int dataset, String name) {
+        Integer keyId = stringIds.get(name);
+        return keyId == null ? NONE : nodeIndex.get(((long) (dataset + 1) << 32) | (keyId & 0xffffffffL));
+    }
+
+    public int findEdge(int from, int to) {
+        return edgeIndex.get(((long) from << 32) | (to & 0xffffffffL));
+    }
+
+    /** Qualified name, e.g. "orders.customer_id" for a column or "orders" for a dataset. */
+    public String qualifiedName(int node) {
+        return nodeOwner[node] == NONE ? key(node) : key(nodeOwner[node]) + "." + key(node);
+    }
+
+    public int outDegree(int node) {
+        ensureIndexed();
+        return outStart[node + 1] - outStart[node];
+    }
+
+    /** The i-th outgoing edge ID of {@code node}. */
+    public int outEdge(int node, int i) {
+        ensureIndexed();
+        return outEdges[outStart[node] + i];
+    }
+
+    public int inDegree(int node) {
+        ensureIndexed();
+        return inStart[node + 1] - inStart[node];
+    }
+
+    public int inEdge(int node, int i) {
+        ensureIndexed();
+        return inEdges[inStart[node] + i];
+    }
+
+    public int columnCount(int dataset) {
+        ensureIndexed();
+        return childStart[dataset + 1] - childStart[dataset];
+    }
+
+    /** The i-th column node of {@code dataset}. */
+    public int columnAt(int dataset, int i) {
+        ensureIndexed();
+        return children[childStart[dataset] + i];
+    }
+
+    public List<String> directives() {
+        return Collections.unmodifiableList(directives);
+    }
+
+    /**
+     * Copy of the graph restricted to {@code nodes} and the edges between them. The set must
+     * contain the owner of every column in it. Node IDs keep their relative order, so node
+     * {@code n} becomes {@code nodes.get(0, n).cardinality()} in the copy.
+     */
+    public LineageGraph subgraph(BitSet nodes) {
+        LineageGraph sub = new LineageGraph();
+        int[] mapped = new int[nodeCount];
+        Arrays.fill(mapped, NONE);
+        for (int n = nodes.nextSetBit(0); n >= 0 && n < nodeCount; n = nodes.nextSetBit(n + 1)) {
+            int owner = nodeOwner[n];
+            if (owner != NONE && mapped[owner] == NONE) {
+                throw new IllegalArgumentException("column " + qualifiedName(n) + " selected without its dataset");
+            }
+            mapped[n] = sub.node(nodeKind[n], owner == NONE ? NONE : mapped[owner], key(n), label(n));
+            if (nodeSourceId[n] != NONE) sub.sourceId(mapped[n], strings[nodeSourceId[n]]);
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            if (mapped[edgeFrom[e]] != NONE && mapped[edgeTo[e]] != NONE) {
+                sub.addEdge(mapped[edgeFrom[e]], mapped[edgeTo[e]], edgeLabel(e));
+            }
+        }
+        return sub;
+    }
+
+    /**
+     * Removes the given nodes and edges in place, together with the columns of removed datasets
+     * and every edge touching a removed node. Surviving nodes and edges keep their relative order
+     * but get new, compacted IDs; look them up again by key afterwards.
+     */
+    public void remove(BitSet nodes, BitSet edges) {
+        int[] mapped = new int[nodeCount];
+        int kept = 0;
+        // owners come before their columns, so a removed owner is always mapped before its columns
+        for (int n = 0; n < nodeCount; n++) {
+            int owner = nodeOwner[n];
+            if (nodes.get(n) || (owner != NONE && mapped[owner] == NONE)) {
+                mapped[n] = NONE;
+                continue;
+            }
+            mapped[n] = kept;
+            nodeKind[kept] = nodeKind[n];
+            nodeKey[kept] = nodeKey[n];
+            nodeLabel[kept] = nodeLabel[n];
+            nodeOwner[kept] = owner == NONE ? NONE : mapped[owner];
+            nodeSourceId[kept] = nodeSourceId[n];
+            kept++;
+        }
+        nodeCount = kept;
+        nodeIndex.clear();
+        for (int n = 0; n < nodeCount; n++) {
+            nodeIndex.put(((long) (nodeOwner[n] + 1) << 32) | (nodeKey[n] & 0xffffffffL), n);
+        }
+
+        int keptEdges = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            int from = mapped[edgeFrom[e]];
+            int to = mapped[edgeTo[e]];
+            if (edges.get(e) || from == NONE || to == NONE) continue;
+            edgeFrom[keptEdges] = from;
+            edgeTo[keptEdges] = to;
+            edgeLabel[keptEdges] = edgeLabel[e];
+            keptEdges++;
+        }
+        edgeCount = keptEdges;
+        edgeIndex.clear();
+        for (int e = 0; e < edgeCount; e++) {
+            edgeIndex.put(((long) edgeFrom[e] << 32) | (edgeTo[e] & 0xffffffffL), e);
+        }
+        indexed = false;
+    }
+
+    private void ensureIndexed() {
+        if (indexed) return;
+        outStart = new int[nodeCount + 1];
+        inStart = new int[nodeCount + 1];
+        childStart = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            outStart[edgeFrom[e] + 1]++;
+            inStart[edgeTo[e] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            if (nodeOwner[n] != NONE) childStart[nodeOwner[n] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            outStart[n + 1] += outStart[n];
+            inStart[n + 1] += inStart[n];
+            childStart[n + 1] += childStart[n];
+        }
+        outEdges = new int[edgeCount];
+        inEdges = new int[edgeCount];
+        children = new int[childStart[nodeCount]];
+        int[] outFill = Arrays.copyOf(outStart, nodeCount);
+        int[] inFill = Arrays.copyOf(inStart, nodeCount);
+        int[] childFill = Arrays.copyOf(childStart, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            outEdges[outFill[edgeFrom[e]]++] = e;
+            inEdges[inFill[edgeTo[e]]++] = e;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            if (nodeOwner[n] != NONE) children[childFill[nodeOwner[n]]++] = n;
+        }
+        indexed = true;
+    }
+
+    // ---- rendering -----------------------------------------------------------------------
+
+    /**
+     * Renders the graph as a Mermaid flowchart: datasets with known columns become subgraphs
+     * holding one node per column, other datasets are plain nodes. Parsed nodes keep the id they
+     * had in the source diagram, so its style and class lines still apply; {@code linkStyle}
+     * lines are left out because edges are de-duplicated and their positions shift.
+     */
+    public String toMermaid() {
+        return toMermaid(null);
+    }
+
+    /**
+     * Same as {@link #toMermaid()}, with the given nodes styled as highlighted
+     * (used to show the result of an impact query).
+     */
+    public String toMermaid(BitSet highlighted) {
+        StringBuilder mermaid = new StringBuilder("graph TD\n");
+        String[] ids = new String[nodeCount];
+        Set<String> used = new HashSet<>();
+        // source ids first, so a generated id can never take one a directive refers to
+        for (int n = 0; n < nodeCount; n++) {
+            if (nodeSourceId[n] != NONE && used.add(strings[nodeSourceId[n]])) ids[n] = strings[nodeSourceId[n]];
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            if (ids[n] != null) continue;
+            String id = mermaidId(n);
+            // sanitizing maps e.g. "a.b" and "a_b" to the same id
+            if (!used.add(id)) {
+                id = id + "_" + n;
+                used.add(id);
+            }
+            ids[n] = id;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            if (nodeKind[n] != DATASET) continue;
+            int columns = columnCount(n);
+            if (columns == 0) {
+                mermaid.append("    ").append(ids[n]).append("[\"").append(escape(label(n))).append("\"]\n");
+                continue;
+            }
+            mermaid.append("    subgraph ").append(ids[n]).append("[\"").append(escape(label(n))).append("\"]\n");
+            for (int i = 0; i < columns; i++) {
+                int column = columnAt(n, i);
+                mermaid.append("        ").append(ids[column]).append("[\"").append(escape(label(column))).append("\"]\n");
+            }
+            mermaid.append("    end\n");
+        }
+        for (int e = 0; e < edgeCount; e++) {
+            mermaid.append("    ").append(ids[edgeFrom[e]]);
+            String label = edgeLabel(e);
+            mermaid.append(label != null ? " -->|" + escape(label) + "| " : " --> ");
+            mermaid.append(ids[edgeTo[e]]).append("\n");
+        }
+        for (String directive : directives) {
+            if (directive.startsWith("linkStyle")) continue;
+            mermaid.append("    ").append(directive).append("\n");
+        }
+        if (highlighted != null && !highlighted.isEmpty()) {
+            mermaid.append("    classDef highlight fill:#fff59d,stroke:#f57f17,stroke-width:3px\n");
+            StringBuilder members = new StringBuilder();
+            for (int n = highlighted.nextSetBit(0); n >= 0 && n < nodeCount; n = highlighted.nextSetBit(n + 1)) {
+                // subgraphs can't take a class; their columns carry the highlight instead
+                if (nodeKind[n] == DATASET && columnCount(n) > 0) continue;
+                if (members.length() > 0) members.append(',');
+                members.append(ids[n]);
+            }
+            if (members.length() > 0) {
+                mermaid.append("    class ").append(members).append(" highlight\n");
+            }
+        }
+        return mermaid.toString().trim();
+    }
+
+    private String mermaidId(int node) {
+        String key = nodeOwner[node] == NONE ? key(node) : key(nodeOwner[node]) + "__" + key(node);
+        StringBuilder id = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            id.append(Character.isLetterOrDigit(c) || c == '_' ? c : '_');
+        }
+        // ids that are Mermaid keywords or start with a digit do not parse
+        String result = id.toString();
+        if (result.isEmpty() || Character.isDigit(result.charAt(0)) || "end".equalsIgnoreCase(result)
+                || "graph".equalsIgnoreCase(result) || "subgraph".equalsIgnoreCase(result)) {
+            result = "n" + node + "_" + result;
+        }
+        return result;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\"", "#quot;").replace("|", "#124;").replace("\n", " ");
+    }
+
+    // ---- parsing -------------------------------------------------------------------------
+
+    /**
+     * Extracts the Mermaid block from an LLM markdown answer and parses it.
+     */
+    public static LineageGraph fromMarkdown(String markdown) {
+        String mermaid = markdown == null ? null : MermaidValidator.extractAndRepair(markdown);
+        return mermaid == null ? new LineageGraph() : fromMermaid(mermaid);
+    }
+
+    /**
+     * Builds the graph from a flowchart as {@link MermaidParser} reads it, so the model and the
+     * validator never disagree about a diagram. A node declared inside a subgraph is a column of
+     * the dataset the subgraph stands for; every other node is a dataset.
+     */
+    public static LineageGraph fromMermaid(String mermaid) {
+        Builder builder = new Builder();
+        MermaidParser.parse(mermaid, builder);
+        return builder.graph;
+    }
+
+    private static final class Builder implements MermaidParser.Listener {
+        final LineageGraph graph = new LineageGraph();
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Deque<Integer> subgraphs = new ArrayDeque<>();
+        // the chain's node group before the last edge, and the group after it
+        private List<Integer> sources = Collections.emptyList();
+        private List<Integer> group = new ArrayList<>();
+        private String edgeLabel;
+
+        @Override
+        public void subgraph(String id, String label) {
+            int dataset = graph.dataset(id, label != null ? decode(label) : id);
+            graph.sourceId(dataset, id);
+            ids.put(id, dataset);
+            subgraphs.push(dataset);
+        }
+
+        @Override
+        public void end() {
+            if (!subgraphs.isEmpty()) subgraphs.pop();
+        }
+
+        @Override
+        public void node(String id, String label) {
+            int node = resolve(id, label != null ? decode(label) : null);
+            for (int from : sources) graph.addEdge(from, node, edgeLabel);
+            group.add(node);
+        }
+
+        @Override
+        public void edge(String label) {
+            sources = group;
+            group = new ArrayList<>();
+            edgeLabel = label != null && !label.isEmpty() ? decode(label) : null;
+        }
+
+        @Override
+        public void endOfChain() {
+            sources = Collections.emptyList();
+            group = new ArrayList<>();
+            edgeLabel = null;
+        }
+
+        @Override
+        public void directive(String line) {
+            graph.addDirective(line);
+        }
+
+        private int resolve(String id, String label) {
+            Integer known = ids.get(id);
+            if (known != null) {
+                if (label != null && graph.nodeLabel[known] == graph.nodeKey[known]) {
+                    graph.nodeLabel[known] = graph.intern(label);
+                }
+                return known;
+            }
+            int owner = subgraphs.isEmpty() ? NONE : subgraphs.peek();
+            int node;
+            if (owner == NONE) {
+                node = graph.dataset(id, label != null ? label : id);
+            } else {
+                // column keys are the visible column name; the Mermaid id maps onto it
+                node = graph.column(owner, label != null ? label : id);
+            }
+            graph.sourceId(node, id);
+            ids.put(id, node);
+            return node;
+        }
+
+        // Undoes what toMermaid() encodes in labels, and the inner half of shapes like [/../]
+        private static String decode(String label) {
+            String result = label.trim();
+            while (result.length() >= 2 && "/\\".indexOf(result.charAt(0)) >= 0
+                    && "/\\".indexOf(result.charAt(result.length() - 1)) >= 0) {
+                result = result.substring(1, result.length() - 1).trim();
+            }
+            return result.replace("#quot;", "\"").replace("#124;", "|").replace("<br/>", " ").replace("<br>", " ");
+        }
+    }
+
+    /**
+     * Open-addressing long -> int map, so the node and edge indexes don't box every key.
+     */
+    static class LongIntMap {
+        private long[] keys = new long[128];
+        private int[] values = new int[128];
+        private boolean[] used = new boolean[128];
+        private int size;
+
+        int get(long key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; used[i]; i = (i + 1) & mask) {
+                if (keys[i] == key) return values[i];
+            }
+            return NONE;
+        }
+
+        void put(long key, int value) {
+            if ((size + 1) * 2 > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (used[i] && keys[i] != key) i = (i + 1) & mask;
+            if (!used[i]) size++;
+            used[i] = true;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiParameter;
+import com.intellij.psi.search.GlobalSearchScope;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent per-project index of computed lineage, one JSON file per Spark entry point under
+ * the IDE system dir. Entries remember a hash of the collected code, so a later lookup can tell
+ * whether the stored lineage is still current without re-running the analysis.
+ */
+public class LineageIndex {
+
+    private static final Logger LOG = Logger.getInstance(LineageIndex.class);
+
+    private static final Gson GSON = new Gson();
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public LineageIndex(Project project) {
+        this(Paths.get(PathManager.getSystemPath(), "spark-lineage", project.getLocationHash(), "index"));
+    }
+
+    LineageIndex(Path dir) {
+        this.dir = dir;
+        load();
+    }
+
+    public static LineageIndex getInstance(Project project) {
+        return project.getService(LineageIndex.class);
+    }
+
+    /** Stable key for a method: qualified class name, method name and parameter types. Needs a read action. */
+    public static String methodKey(PsiMethod method) {
+        PsiClass owner = method.getContainingClass();
+        StringBuilder key = new StringBuilder(owner != null && owner.getQualifiedName() != null
+                ? owner.getQualifiedName() : "?");
+        key.append('#').append(method.getName()).append('(');
+        PsiParameter[] parameters = method.getParameterList().getParameters();
+        for (int i = 0; i < parameters.length; i++) {
+            if (i > 0) key.append(',');
+            key.append(parameters[i].getType().getCanonicalText());
+        }
+        return key.append(')').toString();
+    }
+
+    public Entry get(String methodKey) {
+        return entries.get(methodKey);
+    }
+
+    /** The stored entry if it was computed from exactly this code, otherwise null. */
+    public Entry getCurrent(String methodKey, String code) {
+        Entry entry = entries.get(methodKey);
+        return entry != null && entry.codeHash.equals(LineageResponseCache.key("", "", code)) ? entry : null;
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(new ArrayList<>(entries.values()));
+    }
+
+    public void put(String methodKey, String filePath, String code, String staticMermaid, String lineage) {
+        Entry entry = new Entry();
+        entry.methodKey = methodKey;
+        entry.filePath = filePath;
+        entry.codeHash = LineageResponseCache.key("", "", code);
+        entry.staticMermaid = staticMermaid;
+        entry.lineage = lineage;
+        entry.timestamp = System.currentTimeMillis();
+        entries.put(methodKey, entry);
+        try {
+            Files.createDirectories(dir);
+            // the editor action and batch workers may write the same entry at once; each writes
+            // its own temp file and the last move wins, so the file is never half written
+            Path tmp = Files.createTempFile(dir, "entry", TMP_SUFFIX);
+            try {
+                Files.writeString(tmp, GSON.toJson(entry), StandardCharsets.UTF_8);
+                LineageResponseCache.moveAtomically(tmp, dir.resolve(fileName(methodKey)));
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            LOG.warn("lineage index write failed : " + e.getMessage());
+        }
+    }
+
+    public void remove(String methodKey) {
+        if (entries.remove(methodKey) == null) return;
+        try {
+            Files.deleteIfExists(dir.resolve(fileName(methodKey)));
+        } catch (IOException e) {
+            LOG.warn("lineage index delete failed : " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops entries whose method is gone: deleted, renamed, or with a changed signature (which
+     * changes its key). Each lookup is a short non-blocking read action. Does nothing while the
+     * project is indexing, when a missing class would only mean "not indexed yet".
+     * Returns the number of dropped entries.
+     */
+    public int prune(Project project, ProgressIndicator indicator) {
+        int pruned = 0;
+        for (Entry entry : entries()) {
+            // null: indexing started meanwhile, so leave the rest for the next run
+            Boolean exists = ReadAction
+                    .nonBlocking(() -> DumbService.isDumb(project) ? null : methodExists(project, entry.methodKey))
+                    .wrapProgress(indicator)
+                    .expireWith(project)
+                    .executeSynchronously();
+            if (exists == null) return pruned;
+            if (!exists) {
+                remove(entry.methodKey);
+                pruned++;
+            }
+        }
+        if (pruned > 0) LOG.debug("lineage index : pruned " + pruned + " entries of methods that no longer exist");
+        return pruned;
+    }
+
+    // Needs a read action. Keys of local and anonymous classes can't be looked up and count as existing.
+    private static boolean methodExists(Project project, String methodKey) {
+        int hash = methodKey.indexOf('#');
+        int paren = methodKey.indexOf('(', hash + 1);
+        if (hash <= 0 || paren < 0 || methodKey.startsWith("?")) return true;
+        PsiClass owner = JavaPsiFacade.getInstance(project)
+                .findClass(methodKey.substring(0, hash), GlobalSearchScope.projectScope(project));
+        if (owner == null) return false;
+        for (PsiMethod method : owner.findMethodsByName(methodKey.substring(hash + 1, paren), false)) {
+            if (methodKey.equals(methodKey(method))) return true;
+        }
+        return false;
+    }
+
+    private static String fileName(String methodKey) {
+        return LineageResponseCache.key("", methodKey, "") + ".json";
+    }
+
+    private void load() {
+        File[] files = dir.toFile().listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // left behind by a write that crashed before its move
+                file.delete();
+                continue;
+            }
+            if (!file.getName().endsWith(".json")) continue;
+            try {
+                Entry entry = GSON.fromJson(Files.readString(file.toPath(), StandardCharsets.UTF_8), Entry.class);
+                if (entry != null && entry.methodKey != null) {
+                    entries.put(entry.methodKey, entry);
+                }
+            } catch (IOException | JsonSyntaxException e) {
+                LOG.warn("skipping unreadable lineage index entry " + file + " : " + e.getMessage());
+            }
+        }
+    }
+
+    public static class Entry {
+        public String methodKey;
+        public String filePath;
+        public String codeHash;
+        public String staticMermaid;
+        public String lineage;
+        public long timestamp;
+    }
+}
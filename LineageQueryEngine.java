@@ -0,0 +1,109 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Upstream/downstream impact queries over a {@link LineageGraph}, e.g. "which outputs depend on
+ * src.customer.email". Reachability sets are BitSets over node IDs and are memoized per node;
+ * a traversal that reaches a node whose closure is already known ORs that set in instead of
+ * walking it again, so the transitive closure is built up incrementally across queries and
+ * repeated queries are a single array lookup.
+ */
+public class LineageQueryEngine {
+
+    private final LineageGraph graph;
+    private final BitSet[] downstream;
+    private final BitSet[] upstream;
+
+    public LineageQueryEngine(LineageGraph graph) {
+        this.graph = graph;
+        this.downstream = new BitSet[graph.nodeCount()];
+        this.upstream = new BitSet[graph.nodeCount()];
+    }
+
+    /** All nodes that (transitively) depend on {@code node}, not including the node itself. */
+    public BitSet downstream(int node) {
+        return closure(node, true);
+    }
+
+    /** All nodes {@code node} is (transitively) derived from, not including the node itself. */
+    public BitSet upstream(int node) {
+        return closure(node, false);
+    }
+
+    /**
+     * The subgraph an impact question is about: the node, everything up- and downstream of it,
+     * and the datasets owning any column in that set.
+     */
+    public BitSet impact(int node) {
+        BitSet result = new BitSet(graph.nodeCount());
+        result.or(downstream(node));
+        result.or(upstream(node));
+        result.set(node);
+        for (int n = result.nextSetBit(0); n >= 0; n = result.nextSetBit(n + 1)) {
+            int owner = graph.owner(n);
+            if (owner != LineageGraph.NONE) result.set(owner);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a search string to nodes: an exact qualified name ("orders.customer_id") wins,
+     * otherwise every node whose qualified name or label contains the text, ignoring case.
+     */
+    public List<Integer> find(String query) {
+        List<Integer> matches = new ArrayList<>();
+        String trimmed = query.trim();
+        if (trimmed.isEmpty()) return matches;
+        for (int n = 0; n < graph.nodeCount(); n++) {
+            if (graph.qualifiedName(n).equals(trimmed)) matches.add(n);
+        }
+        if (!matches.isEmpty()) return matches;
+        String needle = trimmed.toLowerCase(Locale.ROOT);
+        for (int n = 0; n < graph.nodeCount(); n++) {
+            if (graph.qualifiedName(n).toLowerCase(Locale.ROOT).contains(needle)
+                    || graph.label(n).toLowerCase(Locale.ROOT).contains(needle)) {
+                matches.add(n);
+            }
+        }
+        return matches;
+    }
+
+    private BitSet closure(int node, boolean forward) {
+        BitSet[] memo = forward ? downstream : upstream;
+        if (memo[node] != null) return memo[node];
+
+        BitSet reached = new BitSet(graph.nodeCount());
+        int[] stack = new int[Math.max(16, graph.edgeCount())];
+        int top = 0;
+        stack[top++] = node;
+        BitSet expanded = new BitSet(graph.nodeCount());
+        expanded.set(node);
+        while (top > 0) {
+            int current = stack[--top];
+            int degree = forward ? graph.outDegree(current) : graph.inDegree(current);
+            for (int i = 0; i < degree; i++) {
+                int edge = forward ? graph.outEdge(current, i) : graph.inEdge(current, i);
+                int next = forward ? graph.edgeTo(edge) : graph.edgeFrom(edge);
+                reached.set(next);
+                if (expanded.get(next)) continue;
+                expanded.set(next);
+                if (memo[next] != null) {
+                    // closure of that node is complete already; reuse it instead of walking it again
+                    reached.or(memo[next]);
+                    expanded.or(memo[next]);
+                    continue;
+                }
+                if (top == stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+                stack[top++] = next;
+            }
+        }
+        reached.clear(node);
+        memo[node] = reached;
+        return reached;
+    }
+}
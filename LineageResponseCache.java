@@ -0,0 +1,163 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of LLM lineage responses, stored under the IDE system dir per project.
+ * Entries are content addressed: the file name is a SHA-256 over the model ID, the prompt
+ * and the collected Spark code, so an unchanged method maps to the same entry on every run.
+ * The total size is bounded and the least recently used entries are evicted first.
+ */
+public class LineageResponseCache {
+
+    private static final Logger LOG = Logger.getInstance(LineageResponseCache.class);
+
+    private static final long MAX_BYTES = 64L * 1024 * 1024;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    // key -> size in bytes, kept in access order so the head is always the LRU entry
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public LineageResponseCache(Project project) {
+        this(Paths.get(PathManager.getSystemPath(), "spark-lineage", project.getLocationHash(), "responses"));
+    }
+
+    LineageResponseCache(Path dir) {
+        this.dir = dir;
+        loadIndex();
+    }
+
+    public static LineageResponseCache getInstance(Project project) {
+        return project.getService(LineageResponseCache.class);
+    }
+
+    public static String key(String modelId, String prompt, String code) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{modelId, prompt, code}) {
+                byte[] bytes = (part == null ? "" : part).getBytes(StandardCharsets.UTF_8);
+                // length prefix keeps ("ab","c") and ("a","bc") from colliding
+                digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public synchronized String get(String key) {
+        if (index.get(key) == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Path file = dir.resolve(key);
+        try {
+            String value = Files.readString(file, StandardCharsets.UTF_8);
+            file.toFile().setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return value;
+        } catch (IOException e) {
+            totalBytes -= index.remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public synchronized void put(String key, String response) {
+        if (response == null) return;
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_BYTES) return;
+        try {
+            Files.createDirectories(dir);
+            // write aside and rename, so a crash or a concurrent reader never sees a half-written answer
+            Path tmp = Files.createTempFile(dir, key, TMP_SUFFIX);
+            try {
+                Files.write(tmp, bytes);
+                moveAtomically(tmp, dir.resolve(key));
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            LOG.warn("lineage cache write failed : " + e.getMessage());
+            return;
+        }
+        Long previous = index.put(key, (long) bytes.length);
+        totalBytes += bytes.length - (previous != null ? previous : 0);
+        evict();
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalBytes > MAX_BYTES && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            try {
+                Files.deleteIfExists(dir.resolve(eldest.getKey()));
+            } catch (IOException ignored) {
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+        }
+    }
+
+    // Rebuilds the LRU order from file modification times, since reads touch the file
+    private void loadIndex() {
+        File[] files = dir.toFile().listFiles(File::isFile);
+        if (files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // left behind by a write that never finished
+                file.delete();
+                continue;
+            }
+            index.put(file.getName(), file.length());
+            totalBytes += file.length();
+        }
+        evict();
+    }
+}
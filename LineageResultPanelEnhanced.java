@@ -1,9 +1,12 @@
 package com.yourplugin.sparklineageplugin;
 
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.DialogWrapper;
+import com.intellij.openapi.util.Disposer;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.JBTabbedPane;
+import com.intellij.util.Alarm;
 import com.intellij.util.ui.JBUI;
 import org.jetbrains.annotations.Nullable;
 
@@ -18,6 +21,8 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,14 +30,24 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
     private String content;
     private JTextArea mermaidTextArea;
     private JTextArea descriptionArea;
-    private JEditorPane htmlPreviewPane;
+    private MermaidPreview preview;
+    private JTextArea rawArea;
     private String extractedMermaid;
+    private LineageGraph graph;
+    private LineageQueryEngine queryEngine;
+    private String highlightedMermaid;
+    private JTextField impactSearchField;
+    private JLabel impactResultLabel;
     private String extractedDescription;
     private boolean isEditing = false;
     private JButton editButton;
     private JButton saveButton;
     private JButton cancelButton;
     private String originalMermaid; // Store original for cancel functionality
+    private final Alarm editAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, getDisposable());
+    private final MermaidIncrementalValidator editValidator = new MermaidIncrementalValidator();
+    private long editGeneration;
+    private static final int EDIT_REFRESH_DELAY_MS = 300;
 
     // Modern color scheme
     private static final Color PRIMARY_COLOR = new Color(34, 139, 34);      // Forest Green
@@ -48,8 +63,7 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
     protected LineageResultPanelEnhanced(Project project, String content) {
         super(project);
         this.content = content;
-        this.extractedMermaid = MermaidValidator.extractAndRepair(content);
-        this.originalMermaid = this.extractedMermaid; // Store original
+        loadLineage(content);
         this.extractedDescription = extractDescription(content);
         init();
         setTitle("Spark Lineage Report - Data Flow Visualization");
@@ -155,27 +169,21 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         mermaidTextArea.setForeground(TEXT_COLOR);
         mermaidTextArea.setBorder(new EmptyBorder(10, 10, 10, 10));
 
-        // Add document listener for real-time validation
+        // Validation and preview run once typing pauses, off the EDT, instead of on every keystroke
         mermaidTextArea.getDocument().addDocumentListener(new DocumentListener() {
             @Override
             public void insertUpdate(DocumentEvent e) {
-                if (isEditing) {
-                    validateMermaidSyntax();
-                }
+                scheduleEditRefresh();
             }
 
             @Override
             public void removeUpdate(DocumentEvent e) {
-                if (isEditing) {
-                    validateMermaidSyntax();
-                }
+                scheduleEditRefresh();
             }
 
             @Override
             public void changedUpdate(DocumentEvent e) {
-                if (isEditing) {
-                    validateMermaidSyntax();
-                }
+                scheduleEditRefresh();
             }
         });
 
@@ -268,6 +276,7 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
 
     private void exitEditMode() {
         isEditing = false;
+        editAlarm.cancelAllRequests();
         mermaidTextArea.setEditable(false);
         mermaidTextArea.setBackground(new Color(248, 249, 250));
         mermaidTextArea.setBorder(new EmptyBorder(10, 10, 10, 10));
@@ -286,6 +295,9 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
             editStatusLabel.setText("READ-ONLY");
             editStatusLabel.setForeground(new Color(108, 117, 125));
         }
+
+        // the preview may still show the draft; go back to the saved (or reverted) diagram
+        refreshPreview();
     }
 
     private void saveMermaidChanges() {
@@ -298,27 +310,36 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
             return;
         }
 
-        // Basic syntax validation
-        if (!isValidMermaidSyntax(newMermaidCode)) {
-            int result = JOptionPane.showConfirmDialog(getContentPane(),
-                    "The Mermaid syntax appears to have issues. Do you want to save anyway?",
-                    "Syntax Warning", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
-
-            if (result != JOptionPane.YES_OPTION) {
+        // Syntax validation with exact positions; offer the parser's deterministic repair
+        MermaidParser.Result parsed = MermaidParser.parse(newMermaidCode);
+        if (!parsed.isValid()) {
+            String[] options = {"Repair", "Save Anyway", "Cancel"};
+            int result = JOptionPane.showOptionDialog(getContentPane(),
+                    "The Mermaid syntax has issues:\n\n" + describeDiagnostics(parsed) + "\n\nRepair them automatically?",
+                    "Syntax Warning", JOptionPane.YES_NO_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE,
+                    null, options, options[0]);
+
+            if (result == 0) {
+                newMermaidCode = parsed.repaired;
+            } else if (result != 1) {
                 return;
             }
         }
 
-        // Save the changes
+        // Save the diagram as written; the graph model only backs impact queries and exports
+        graph = LineageGraph.fromMermaid(newMermaidCode);
+        queryEngine = null;
+        highlightedMermaid = null;
         extractedMermaid = newMermaidCode;
-        originalMermaid = newMermaidCode; // Update original for future cancels
+        originalMermaid = extractedMermaid; // Update original for future cancels
+        mermaidTextArea.setText(extractedMermaid);
 
         // Exit edit mode
         exitEditMode();
 
         // Show success message
         JOptionPane.showMessageDialog(getContentPane(),
-                "Mermaid diagram updated successfully! Click 'Refresh' to see changes in the preview.",
+                "Mermaid diagram updated successfully!",
                 "Changes Saved", JOptionPane.INFORMATION_MESSAGE);
     }
 
@@ -335,6 +356,36 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
                 "Changes Cancelled", JOptionPane.INFORMATION_MESSAGE);
     }
 
+    // Coalesces a burst of edits into one validation + render EDIT_REFRESH_DELAY_MS after the last keystroke
+    private void scheduleEditRefresh() {
+        if (!isEditing) return;
+        long generation = ++editGeneration;
+        editAlarm.cancelAllRequests();
+        editAlarm.addRequest(() -> {
+            String text = mermaidTextArea.getText();
+            List<MermaidParser.Diagnostic> diagnostics;
+            synchronized (editValidator) {
+                diagnostics = editValidator.validate(text);
+            }
+            SwingUtilities.invokeLater(() -> {
+                // a newer edit arrived meanwhile; its own refresh will follow
+                if (generation != editGeneration || !isEditing || isDisposed()) return;
+                showValidation(diagnostics);
+                preview.render(text.trim());
+            });
+        }, EDIT_REFRESH_DELAY_MS);
+    }
+
+    private void showValidation(List<MermaidParser.Diagnostic> diagnostics) {
+        boolean isValid = diagnostics.isEmpty();
+        Color borderColor = isValid ? SUCCESS_COLOR : WARNING_COLOR;
+        mermaidTextArea.setBorder(BorderFactory.createCompoundBorder(
+                BorderFactory.createLineBorder(borderColor, 2),
+                new EmptyBorder(8, 8, 8, 8)
+        ));
+        mermaidTextArea.setToolTipText(isValid ? null : diagnostics.get(0).toString());
+    }
+
     private void validateMermaidSyntax() {
         String mermaidCode = mermaidTextArea.getText().trim();
 
@@ -342,39 +393,22 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
             return;
         }
 
-        boolean isValid = isValidMermaidSyntax(mermaidCode);
-
         // Update border color based on validation
         if (isEditing) {
-            Color borderColor = isValid ? SUCCESS_COLOR : WARNING_COLOR;
-            mermaidTextArea.setBorder(BorderFactory.createCompoundBorder(
-                    BorderFactory.createLineBorder(borderColor, 2),
-                    new EmptyBorder(8, 8, 8, 8)
-            ));
+            showValidation(MermaidParser.parse(mermaidCode).diagnostics);
         }
     }
 
-    private boolean isValidMermaidSyntax(String mermaidCode) {
-        // Basic Mermaid syntax validation
-        if (mermaidCode == null || mermaidCode.trim().isEmpty()) {
-            return false;
+    private static String describeDiagnostics(MermaidParser.Result parsed) {
+        StringBuilder text = new StringBuilder();
+        int shown = Math.min(8, parsed.diagnostics.size());
+        for (int i = 0; i < shown; i++) {
+            text.append("- ").append(parsed.diagnostics.get(i)).append("\n");
         }
-
-        // Check for common Mermaid diagram types
-        String[] validTypes = {"graph", "flowchart", "sequenceDiagram", "classDiagram",
-                "stateDiagram", "gantt", "pie", "gitgraph", "erDiagram"};
-
-        String firstLine = mermaidCode.split("\n")[0].trim().toLowerCase();
-
-        for (String type : validTypes) {
-            if (firstLine.startsWith(type.toLowerCase())) {
-                return true;
-            }
+        if (parsed.diagnostics.size() > shown) {
+            text.append("- ... and ").append(parsed.diagnostics.size() - shown).append(" more\n");
         }
-
-        // If no valid type found, it might still be valid (basic check)
-        return mermaidCode.contains("-->") || mermaidCode.contains("->") ||
-                mermaidCode.contains("---") || mermaidCode.contains("==");
+        return text.toString().trim();
     }
 
     private JPanel createDescriptionPanel() {
@@ -428,7 +462,7 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
 
         panel.add(headerPanel, BorderLayout.NORTH);
 
-        JTextArea rawArea = new JTextArea(content);
+        rawArea = new JTextArea(content);
         rawArea.setFont(new Font("JetBrains Mono", Font.PLAIN, 10));
         rawArea.setLineWrap(true);
         rawArea.setWrapStyleWord(true);
@@ -461,13 +495,12 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
 
         contentPanel.add(titlePanel, BorderLayout.NORTH);
 
-        // HTML preview pane with modern styling
-        htmlPreviewPane = new JEditorPane("text/html", generateHtmlContent());
-        htmlPreviewPane.setEditable(false);
-        htmlPreviewPane.setBackground(Color.WHITE);
-        htmlPreviewPane.setBorder(new EmptyBorder(10, 10, 10, 10));
+        // One browser for the panel's lifetime; refreshes only push the new diagram text into it
+        preview = new MermaidPreview(diagram -> generateHtmlContent(MermaidAssets.scriptTag(false), diagram));
+        Disposer.register(getDisposable(), preview);
+        preview.render(currentDiagram());
 
-        JBScrollPane htmlScrollPane = new JBScrollPane(htmlPreviewPane);
+        JComponent htmlScrollPane = preview.getComponent();
         htmlScrollPane.setPreferredSize(new Dimension(700, 600));
         htmlScrollPane.setBorder(BorderFactory.createLineBorder(new Color(222, 226, 230)));
         htmlScrollPane.setBackground(CARD_COLOR);
@@ -483,6 +516,22 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         JPanel previewControls = new JPanel(new FlowLayout(FlowLayout.RIGHT, 15, 10));
         previewControls.setBackground(CARD_COLOR);
 
+        // Column impact search: highlights everything up- and downstream of the matched nodes
+        impactSearchField = new JTextField(22);
+        impactSearchField.setToolTipText("Column or dataset, e.g. src.customer.email");
+        impactSearchField.addActionListener(e -> runImpactQuery());
+        previewControls.add(new JLabel("Impact of:"));
+        previewControls.add(impactSearchField);
+
+        JButton traceBtn = createStyledButton("Trace", SECONDARY_COLOR);
+        traceBtn.setToolTipText("Highlight upstream and downstream lineage of the searched column");
+        traceBtn.addActionListener(e -> runImpactQuery());
+        previewControls.add(traceBtn);
+
+        impactResultLabel = new JLabel(" ");
+        impactResultLabel.setFont(new Font("Segoe UI", Font.PLAIN, 11));
+        previewControls.add(impactResultLabel);
+
         JButton refreshBtn = createStyledButton("Refresh", PRIMARY_COLOR);
         refreshBtn.setToolTipText("Refresh preview with current Mermaid code");
         refreshBtn.addActionListener(e -> refreshPreview());
@@ -546,8 +595,16 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         return button;
     }
 
-    private String generateHtmlContent() {
-        if (extractedMermaid == null || extractedMermaid.isEmpty()) {
+    private String currentDiagram() {
+        return highlightedMermaid != null ? highlightedMermaid : extractedMermaid;
+    }
+
+    private String generateHtmlContent(String mermaidScriptTag) {
+        return generateHtmlContent(mermaidScriptTag, currentDiagram());
+    }
+
+    private String generateHtmlContent(String mermaidScriptTag, String diagram) {
+        if (diagram == null || diagram.isEmpty()) {
             return "<html><body style='font-family: Segoe UI, Arial, sans-serif; padding: 30px; text-align: center; background: linear-gradient(135deg, #f5f7fa 0%, #c3cfe2 100%); min-height: 100vh;'>" +
                     "<div style='background: white; padding: 40px; border-radius: 15px; box-shadow: 0 10px 30px rgba(0,0,0,0.1); max-width: 600px; margin: 0 auto;'>" +
                     "<h2 style='color: #d32f2f; margin-bottom: 20px;'>No Mermaid Diagram Found</h2>" +
@@ -563,8 +620,9 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         String result = "<!DOCTYPE html>\n" +
                 "<html>\n" +
                 "<head>\n" +
+                "    <meta charset=\"utf-8\">\n" +
                 "    <title>Spark Lineage Diagram</title>\n" +
-                "    <script src=\"https://cdn.jsdelivr.net/npm/mermaid@10.6.1/dist/mermaid.min.js\"></script>\n" +
+                "    " + mermaidScriptTag + "\n" +
                 "    <style>\n" +
                 "        body {\n" +
                 "            font-family: 'Segoe UI', Tahoma, Geneva, Verdana, sans-serif;\n" +
@@ -673,7 +731,7 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
                 "Hover over elements for more details and click to explore connections.\n" +
                 "            </div>\n" +
                 "            <div class=\"mermaid\">\n" +
-                extractedMermaid + "\n" +
+                diagram + "\n" +
                 "            </div>\n" +
                 "        </div>\n" +
                 "        <div class=\"footer\">\n" +
@@ -707,10 +765,43 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         return result;
     }
 
+    private void runImpactQuery() {
+        String query = impactSearchField.getText();
+        if (graph == null || graph.isEmpty() || query.trim().isEmpty()) {
+            highlightedMermaid = null;
+            impactResultLabel.setText(" ");
+            refreshPreview();
+            return;
+        }
+        if (queryEngine == null) {
+            queryEngine = new LineageQueryEngine(graph);
+        }
+
+        long start = System.nanoTime();
+        java.util.List<Integer> matches = queryEngine.find(query);
+        java.util.BitSet subgraph = new java.util.BitSet(graph.nodeCount());
+        int upstream = 0;
+        int downstream = 0;
+        for (int node : matches) {
+            upstream += queryEngine.upstream(node).cardinality();
+            downstream += queryEngine.downstream(node).cardinality();
+            subgraph.or(queryEngine.impact(node));
+        }
+        long micros = (System.nanoTime() - start) / 1_000;
+
+        if (matches.isEmpty()) {
+            highlightedMermaid = null;
+            impactResultLabel.setText("No match");
+        } else {
+            highlightedMermaid = graph.toMermaid(subgraph);
+            impactResultLabel.setText(matches.size() + " match(es): " + upstream + " upstream, "
+                    + downstream + " downstream (" + micros + " \u00b5s)");
+        }
+        refreshPreview();
+    }
+
     private void refreshPreview() {
-        htmlPreviewPane.setText(generateHtmlContent());
-        htmlPreviewPane.revalidate();
-        htmlPreviewPane.repaint();
+        preview.render(currentDiagram());
     }
 
     private void copyMermaidToClipboard() {
@@ -735,8 +826,9 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         int result = fileChooser.showSaveDialog(getContentPane());
         if (result == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            try (FileWriter writer = new FileWriter(file)) {
-                writer.write(generateHtmlContent());
+            // exports are opened elsewhere, so they carry mermaid.js inline instead of pointing at this machine
+            try (FileWriter writer = new FileWriter(file, StandardCharsets.UTF_8)) {
+                writer.write(generateHtmlContent(MermaidAssets.scriptTag(true)));
                 JOptionPane.showMessageDialog(getContentPane(),
                         "HTML file exported successfully to: " + file.getAbsolutePath(),
                         "Export Success", JOptionPane.INFORMATION_MESSAGE);
@@ -753,8 +845,8 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
             File tempFile = File.createTempFile("spark_lineage_", ".html");
             tempFile.deleteOnExit();
 
-            try (FileWriter writer = new FileWriter(tempFile)) {
-                writer.write(generateHtmlContent());
+            try (FileWriter writer = new FileWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(generateHtmlContent(MermaidAssets.scriptTag(false)));
             }
 
             Desktop.getDesktop().browse(tempFile.toURI());
@@ -765,6 +857,17 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         }
     }
 
+    // Parse the LLM answer into the graph model once for impact queries and exports; the editor and
+    // preview show the model's own (repaired) diagram, which a re-render would lose styling from
+    private void loadLineage(String markdown) {
+        String repaired = MermaidValidator.extractAndRepair(markdown);
+        graph = repaired != null ? LineageGraph.fromMermaid(repaired) : new LineageGraph();
+        queryEngine = null;
+        highlightedMermaid = null;
+        extractedMermaid = repaired;
+        originalMermaid = extractedMermaid; // Store original
+    }
+
     private String extractDescription(String text) {
         // Extract description from the content (customize based on your format)
         String[] lines = text.split("\n");
@@ -791,5 +894,50 @@ public class LineageResultPanelEnhanced extends DialogWrapper {
         LineageResultPanelEnhanced panel = new LineageResultPanelEnhanced(project, result);
         panel.show();
     }
+
+    /**
+     * Opens an empty, non-modal panel that is filled incrementally through
+     * {@link #appendStreamingText(String)} while the LLM is still generating.
+     * Closing the panel cancels {@code indicator}, so the task stops instead of
+     * streaming into a dialog that is gone. Must be called on the EDT.
+     */
+    public static LineageResultPanelEnhanced showStreaming(Project project, ProgressIndicator indicator) {
+        LineageResultPanelEnhanced panel = new LineageResultPanelEnhanced(project, "");
+        panel.setModal(false);
+        Disposer.register(panel.getDisposable(), indicator::cancel);
+        panel.show();
+        return panel;
+    }
+
+    public void resetStreamingText() {
+        SwingUtilities.invokeLater(() -> {
+            if (!isDisposed()) rawArea.setText("");
+        });
+    }
+
+    public void appendStreamingText(String chunk) {
+        SwingUtilities.invokeLater(() -> {
+            if (isDisposed()) return;
+            rawArea.append(chunk);
+            rawArea.setCaretPosition(rawArea.getDocument().getLength());
+        });
+    }
+
+    // Once the stream ends, parse the complete output and fill the Mermaid, description and preview views
+    public void finishStreaming(String result) {
+        SwingUtilities.invokeLater(() -> {
+            // closed while the LLM was still answering; the JCEF browser is already released
+            if (isDisposed()) return;
+            content = result;
+            loadLineage(result);
+            extractedDescription = extractDescription(result);
+
+            rawArea.setText(result);
+            mermaidTextArea.setText(extractedMermaid != null ? extractedMermaid : "No Mermaid diagram found");
+            descriptionArea.setText(extractedDescription != null && !extractedDescription.isEmpty()
+                    ? extractedDescription : "No description available");
+            refreshPreview();
+        });
+    }
 }
 
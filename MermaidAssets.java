@@ -0,0 +1,116 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The mermaid.js bundled into the plugin jar by the {@code bundleMermaid} Gradle task, so
+ * previews and exports work without network access. The script is read from the jar once and
+ * copied to the IDE system dir once per version; pages reference that copy, or inline the
+ * script when they have to be self-contained. An extracted copy is replaced unless its SHA-256
+ * matches the bundled script. Builds without the bundle fall back to the CDN.
+ */
+public final class MermaidAssets {
+
+    private static final Logger LOG = Logger.getInstance(MermaidAssets.class);
+
+    // keep in sync with mermaidVersion in build.gradle.kts
+    static final String VERSION = "10.6.1";
+    private static final String RESOURCE = "/mermaid/mermaid.min.js";
+    private static final String CDN_URL = "https://cdn.jsdelivr.net/npm/mermaid@" + VERSION + "/dist/mermaid.min.js";
+
+    private static String script;
+    private static String scriptSha256;
+    private static boolean scriptLoaded;
+    private static Path localScript;
+
+    private MermaidAssets() {
+    }
+
+    /** The bundled script, or null if this build doesn't contain it. */
+    public static synchronized String script() {
+        if (!scriptLoaded) {
+            scriptLoaded = true;
+            try (InputStream in = MermaidAssets.class.getResourceAsStream(RESOURCE)) {
+                if (in != null) {
+                    byte[] bytes = in.readAllBytes();
+                    script = new String(bytes, StandardCharsets.UTF_8);
+                    scriptSha256 = sha256(script.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    LOG.info("mermaid.js is not bundled, falling back to " + CDN_URL);
+                }
+            } catch (IOException e) {
+                LOG.warn("could not read bundled mermaid.js : " + e.getMessage());
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Directory holding the extracted mermaid.min.js, shared by every preview and browser page.
+     * Null if the script isn't bundled or can't be written.
+     */
+    public static synchronized Path directory() {
+        if (localScript == null) {
+            String bundled = script();
+            if (bundled == null) return null;
+            Path target = Paths.get(PathManager.getSystemPath(), "spark-lineage", "mermaid-" + VERSION, "mermaid.min.js");
+            try {
+                if (!Files.isRegularFile(target) || !scriptSha256.equals(sha256(Files.readAllBytes(target)))) {
+                    Files.createDirectories(target.getParent());
+                    // another IDE instance may be reading the old copy; swap it in whole
+                    Path tmp = Files.createTempFile(target.getParent(), "mermaid", ".tmp");
+                    Files.writeString(tmp, bundled, StandardCharsets.UTF_8);
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                localScript = target;
+            } catch (IOException e) {
+                LOG.warn("could not extract mermaid.js : " + e.getMessage());
+                return null;
+            }
+        }
+        return localScript.getParent();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * {@code <script>} tag that loads mermaid. {@code inline} embeds the whole script, for
+     * exported files that may be opened on another machine; otherwise the tag points at the
+     * extracted local copy.
+     */
+    public static String scriptTag(boolean inline) {
+        if (inline) {
+            String bundled = script();
+            if (bundled != null) {
+                return "<script>\n" + bundled.replace("</script", "<\\/script") + "\n</script>";
+            }
+        } else {
+            Path dir = directory();
+            if (dir != null) {
+                return "<script src=\"" + dir.resolve("mermaid.min.js").toUri() + "\"></script>";
+            }
+        }
+        return "<script src=\"" + CDN_URL + "\"></script>";
+    }
+}
@@ -0,0 +1,100 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Validates a diagram that is being edited, re-parsing only the lines that changed since the
+ * previous call. Unchanged lines before and after the edit keep their cached per-line result;
+ * header and subgraph nesting are then checked with one pass over the cached results, which
+ * only looks at a few ints per line. Gives the same diagnostics as {@link MermaidParser#parse}.
+ * Not thread-safe; callers serialize access.
+ */
+public class MermaidIncrementalValidator {
+
+    private String[] lines = new String[0];
+    private MermaidParser.LineCheck[] checks = new MermaidParser.LineCheck[0];
+    private int lastReparsed;
+
+    public List<MermaidParser.Diagnostic> validate(String text) {
+        String[] next = text.split("\n", -1);
+        int prefix = 0;
+        int max = Math.min(lines.length, next.length);
+        while (prefix < max && lines[prefix].equals(next[prefix])) prefix++;
+        int suffix = 0;
+        while (suffix < max - prefix
+                && lines[lines.length - 1 - suffix].equals(next[next.length - 1 - suffix])) suffix++;
+
+        MermaidParser.LineCheck[] nextChecks = new MermaidParser.LineCheck[next.length];
+        System.arraycopy(checks, 0, nextChecks, 0, prefix);
+        System.arraycopy(checks, checks.length - suffix, nextChecks, next.length - suffix, suffix);
+        for (int i = prefix; i < next.length - suffix; i++) {
+            nextChecks[i] = MermaidParser.checkLine(next[i]);
+        }
+        lastReparsed = next.length - suffix - prefix;
+        lines = next;
+        checks = nextChecks;
+        return structure();
+    }
+
+    /** Number of lines the last {@link #validate} call had to parse. */
+    public int getLastReparsed() {
+        return lastReparsed;
+    }
+
+    private List<MermaidParser.Diagnostic> structure() {
+        List<MermaidParser.Diagnostic> diagnostics = new ArrayList<>();
+        int depth = 0;
+        int lastLine = 1;
+        boolean header = false;
+        for (int i = 0; i < checks.length; i++) {
+            MermaidParser.LineCheck check = checks[i];
+            if (check.kind == MermaidParser.LineCheck.BLANK) continue;
+            int line = i + 1;
+            lastLine = line;
+            if (!header) {
+                header = true;
+                if (check.kind == MermaidParser.LineCheck.OTHER_DIAGRAM) return diagnostics;
+                if (check.kind != MermaidParser.LineCheck.HEADER) {
+                    diagnostics.add(new MermaidParser.Diagnostic(line, indentOf(lines[i]) + 1, "missing 'graph TD' header"));
+                }
+            } else if (check.kind == MermaidParser.LineCheck.HEADER) {
+                // the full parser reads a second header as a node named "graph"
+                diagnostics.addAll(relocate(MermaidParser.parse("graph TD\n" + lines[i]).diagnostics, line - 2));
+                continue;
+            }
+            for (int event : check.structure) {
+                if (event > 0) {
+                    depth++;
+                } else if (depth == 0) {
+                    diagnostics.add(new MermaidParser.Diagnostic(line, -event, "'end' without a matching subgraph"));
+                } else {
+                    depth--;
+                }
+            }
+            diagnostics.addAll(relocate(check.diagnostics, line - 1));
+        }
+        for (; depth > 0; depth--) {
+            diagnostics.add(new MermaidParser.Diagnostic(lastLine, 1, "subgraph is never closed with 'end'"));
+        }
+        if (!header) {
+            diagnostics.add(new MermaidParser.Diagnostic(1, 1, "empty diagram"));
+        }
+        return diagnostics;
+    }
+
+    private static int indentOf(String line) {
+        int i = 0;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        return i;
+    }
+
+    private static List<MermaidParser.Diagnostic> relocate(List<MermaidParser.Diagnostic> diagnostics, int offset) {
+        if (diagnostics.isEmpty()) return diagnostics;
+        List<MermaidParser.Diagnostic> moved = new ArrayList<>(diagnostics.size());
+        for (MermaidParser.Diagnostic diagnostic : diagnostics) {
+            moved.add(new MermaidParser.Diagnostic(diagnostic.line + offset, diagnostic.column, diagnostic.message));
+        }
+        return moved;
+    }
+}
@@ -0,0 +1,650 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Linear-time lexer/parser for the Mermaid flowchart subset we generate and render: the
+ * {@code graph}/{@code flowchart} header, nodes with shaped labels, {@code &} groups, edge
+ * chains with pipe or inline labels, subgraphs, and classDef/style/class directives.
+ *
+ * Every problem is reported with its 1-based line and column and repaired deterministically,
+ * and the diagram is re-emitted in canonical form (quoted labels, one statement per line), so
+ * broken LLM output can be fixed locally instead of with another model round trip. A
+ * {@link Listener} additionally receives the statements as they are parsed, which is how
+ * {@link LineageGraph} builds its model from the same grammar.
+ */
+public class MermaidParser {
+
+    private static final String[] DIRECTIONS = {"TD", "TB", "BT", "RL", "LR"};
+    private static final String[] DIRECTIVES = {"classDef", "class", "style", "linkStyle", "click", "direction"};
+    private static final String[] DIAGRAM_TYPES = {"sequenceDiagram", "classDiagram", "stateDiagram",
+            "gantt", "pie", "gitGraph", "erDiagram", "journey", "mindmap", "timeline"};
+
+    // node shape delimiters, longest first so "[(" wins over "["
+    private static final String[] SHAPE_OPEN = {"([", "[(", "[[", "((", "{{", "[", "{", "(", ">"};
+    private static final String[] SHAPE_CLOSE = {"])", ")]", "]]", "))", "}}", "]", "}", ")", "]"};
+    private static final String[] INDENTS = new String[8];
+
+    static {
+        for (int i = 0; i < INDENTS.length; i++) INDENTS[i] = " ".repeat(i * 4);
+    }
+
+    public static class Diagnostic {
+        public final int line;
+        public final int column;
+        public final String message;
+
+        Diagnostic(int line, int column, String message) {
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + line + ", column " + column + ": " + message;
+        }
+    }
+
+    public static class Result {
+        public final String repaired;
+        public final List<Diagnostic> diagnostics;
+
+        Result(String repaired, List<Diagnostic> diagnostics) {
+            this.repaired = repaired;
+            this.diagnostics = Collections.unmodifiableList(diagnostics);
+        }
+
+        /** True if the input parsed without any repair. */
+        public boolean isValid() {
+            return diagnostics.isEmpty();
+        }
+    }
+
+    /**
+     * Receives the statements of a flowchart in source order, already repaired: ids are
+     * sanitized, and labels are unquoted with inner quotes replaced. Within one chain, each
+     * {@link #edge} connects every node reported since the previous edge (an {@code &} group)
+     * to every node reported after it, up to the next edge or {@link #endOfChain}.
+     */
+    interface Listener {
+        /** {@code label} is null if the subgraph has no label of its own. */
+        void subgraph(String id, String label);
+
+        void end();
+
+        /** {@code label} is null for a bare id. */
+        void node(String id, String label);
+
+        /** {@code label} is null for an unlabelled edge. */
+        void edge(String label);
+
+        void endOfChain();
+
+        /** A classDef, class, style, linkStyle or click line, as written. */
+        void directive(String line);
+    }
+
+    /**
+     * Parses {@code text} and returns the canonical (repaired) diagram with everything that had
+     * to be fixed. Diagram types other than flowcharts are passed through unchecked.
+     */
+    public static Result parse(String text) {
+        return new MermaidParser(text == null ? "" : text, false, null).run();
+    }
+
+    /** As {@link #parse(String)}, reporting each statement to {@code listener} as well. */
+    static Result parse(String text, Listener listener) {
+        return new MermaidParser(text == null ? "" : text, false, listener).run();
+    }
+
+    /**
+     * Checks one line on its own, for {@link MermaidIncrementalValidator}. Problems that depend
+     * on other lines (header position, subgraph nesting) are left out; the line's header flag
+     * and subgraph/end columns are returned instead, so the caller can check structure with a
+     * cheap pass over all lines.
+     */
+    static LineCheck checkLine(String line) {
+        MermaidParser parser = new MermaidParser(line, true, null);
+        parser.run();
+        return new LineCheck(parser.diagnostics, parser.lineKind, parser.structure);
+    }
+
+    static class LineCheck {
+        static final int BLANK = 0;
+        static final int STATEMENT = 1;
+        static final int HEADER = 2;
+        static final int OTHER_DIAGRAM = 3;
+
+        final List<Diagnostic> diagnostics;
+        final int kind;
+        // column of each "subgraph" (positive) and "end" (negative), in order
+        final int[] structure;
+
+        LineCheck(List<Diagnostic> diagnostics, int kind, List<Integer> structure) {
+            this.diagnostics = diagnostics;
+            this.kind = kind;
+            this.structure = new int[structure.size()];
+            for (int i = 0; i < this.structure.length; i++) this.structure[i] = structure.get(i);
+        }
+    }
+
+    private final String text;
+    private final boolean fragment;
+    // null unless a caller wants the statements as well as the text
+    private final Listener listener;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private final StringBuilder out;
+    private final List<Integer> structure = new ArrayList<>();
+    private int lineKind = LineCheck.BLANK;
+
+    // current line
+    private int lineNumber;
+    private int lineStart;
+    private int pos;
+    private int end;
+    private int depth;
+
+    private MermaidParser(String text, boolean fragment, Listener listener) {
+        this.text = text;
+        this.fragment = fragment;
+        this.listener = listener;
+        this.out = new StringBuilder(text.length() + text.length() / 8);
+    }
+
+    private Result run() {
+        boolean header = false;
+        int length = text.length();
+        int next = 0;
+        int lastLine = 1;
+        while (next <= length) {
+            int lineEnd = text.indexOf('\n', next);
+            if (lineEnd < 0) lineEnd = length;
+            lineNumber++;
+            lineStart = next;
+            pos = next;
+            end = lineEnd > next && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            next = lineEnd + 1;
+
+            skipSpaces();
+            trimEnd();
+            if (pos == end) continue;
+            lastLine = lineNumber;
+
+            if (startsWith("%%")) {
+                line(0).append(text, pos, end).append('\n');
+                continue;
+            }
+            lineKind = LineCheck.STATEMENT;
+            if (!header) {
+                header = true;
+                if (startsWithWord("graph") || startsWithWord("flowchart")) {
+                    lineKind = LineCheck.HEADER;
+                    parseHeader();
+                    continue;
+                }
+                for (String type : DIAGRAM_TYPES) {
+                    if (startsWithWord(type)) {
+                        lineKind = LineCheck.OTHER_DIAGRAM;
+                        return new Result(text.trim(), diagnostics);
+                    }
+                }
+                if (!fragment) {
+                    error("missing 'graph TD' header");
+                    out.append("graph TD\n");
+                }
+            }
+            parseStatements();
+        }
+        if (fragment) return new Result(out.toString().trim(), diagnostics);
+        while (depth > 0) {
+            diagnostics.add(new Diagnostic(lastLine, 1, "subgraph is never closed with 'end'"));
+            depth--;
+            line(0).append("end\n");
+        }
+        if (!header) {
+            diagnostics.add(new Diagnostic(1, 1, "empty diagram"));
+        }
+        return new Result(out.toString().trim(), diagnostics);
+    }
+
+    private void parseHeader() {
+        int keyword = pos;
+        while (pos < end && !Character.isWhitespace(text.charAt(pos))) pos++;
+        out.append(text, keyword, pos);
+        skipSpaces();
+        int start = pos;
+        while (pos < end && Character.isLetter(text.charAt(pos))) pos++;
+        String direction = text.substring(start, pos);
+        if (!isDirection(direction)) {
+            error(direction.isEmpty() ? "missing graph direction" : "unknown graph direction '" + direction + "'", start);
+            direction = "TD";
+        }
+        out.append(' ').append(direction).append('\n');
+        skipSpaces();
+        if (pos < end && text.charAt(pos) == ';') pos++;
+        skipSpaces();
+        if (pos < end) parseStatements();
+    }
+
+    // A line may hold several ';'-separated statements
+    private void parseStatements() {
+        while (true) {
+            skipSpaces();
+            if (pos >= end) return;
+            if (text.charAt(pos) == ';') {
+                pos++;
+                continue;
+            }
+            parseStatement();
+        }
+    }
+
+    private void parseStatement() {
+        if (startsWithWord("subgraph")) {
+            parseSubgraph();
+            return;
+        }
+        if (startsWithWord("end") && isStatementEnd(pos + 3)) {
+            structure.add(-(pos - lineStart + 1));
+            pos += 3;
+            if (depth == 0) {
+                // a lone line can't know whether a subgraph is open; the incremental validator checks
+                if (!fragment) error("'end' without a matching subgraph", pos - 3);
+                return;
+            }
+            depth--;
+            line(0).append("end\n");
+            if (listener != null) listener.end();
+            return;
+        }
+        for (String directive : DIRECTIVES) {
+            if (startsWithWord(directive)) {
+                // styling is passed through as written; it holds no labels or edges
+                line(0).append(text, pos, end).append('\n');
+                if (listener != null && !directive.equals("direction")) listener.directive(text.substring(pos, end));
+                pos = end;
+                return;
+            }
+        }
+        parseChain();
+    }
+
+    private void parseSubgraph() {
+        structure.add(pos - lineStart + 1);
+        pos += "subgraph".length();
+        skipSpaces();
+        StringBuilder statement = line(0).append("subgraph");
+        depth++;
+        int idStart = pos;
+        String id = readId();
+        String label = null;
+        skipSpaces();
+        if (id != null && (pos >= end || text.charAt(pos) == ';' || shapeAt(pos) >= 0)) {
+            statement.append(' ').append(id);
+            if (pos < end && text.charAt(pos) != ';') {
+                label = appendShape(statement);
+            }
+        } else if (idStart < end) {
+            // "subgraph Some Title" form
+            int stop = statementEnd();
+            statement.append(' ').append(text, idStart, stop);
+            if (listener != null) {
+                String title = text.substring(idStart, stop);
+                label = title.replace("\"", "");
+                id = title.replaceAll("[^A-Za-z0-9_]", "_");
+            }
+            pos = stop;
+        } else {
+            error("subgraph without a name", idStart);
+            statement.append(" subgraph_").append(lineNumber);
+            id = "subgraph_" + lineNumber;
+        }
+        statement.append('\n');
+        if (listener != null) listener.subgraph(id, label);
+    }
+
+    // node ("&" node)* (edge node ("&" node)*)*
+    private void parseChain() {
+        StringBuilder statement = line(0);
+        int statementStart = statement.length();
+        boolean expectNode = true;
+        boolean afterAmpersand = false;
+        int danglingFrom = -1;
+        while (true) {
+            skipSpaces();
+            if (pos >= end || text.charAt(pos) == ';') break;
+
+            if (expectNode) {
+                if (!appendNode(statement)) {
+                    error("unexpected '" + text.charAt(pos) + "'");
+                    pos++;
+                    continue;
+                }
+                expectNode = false;
+                afterAmpersand = false;
+                danglingFrom = -1;
+                skipSpaces();
+                if (pos < end && text.charAt(pos) == '&') {
+                    pos++;
+                    statement.append(" & ");
+                    expectNode = true;
+                    afterAmpersand = true;
+                }
+                continue;
+            }
+
+            int before = statement.length();
+            if (!appendEdge(statement)) {
+                error("expected an arrow after node, found '" + text.charAt(pos) + "'");
+                pos = statementEnd();
+                break;
+            }
+            danglingFrom = before;
+            expectNode = true;
+        }
+        if (danglingFrom >= 0) {
+            error("edge has no target node");
+            statement.setLength(danglingFrom);
+        } else if (afterAmpersand) {
+            error("'&' has no node after it");
+            statement.setLength(statement.length() - 3);
+        }
+        if (listener != null) listener.endOfChain();
+        if (statement.length() == statementStart) {
+            // nothing usable on this line; drop the indentation as well
+            out.setLength(statementStart - indent(0).length());
+            return;
+        }
+        statement.append('\n');
+    }
+
+    private boolean appendNode(StringBuilder statement) {
+        int idStart = pos;
+        String id = readId();
+        if (id == null) return false;
+        if (id.equalsIgnoreCase("end") || id.equalsIgnoreCase("subgraph") || id.equalsIgnoreCase("graph")) {
+            error("'" + id + "' is a reserved word and can't be a node id", idStart);
+            id = id + "_";
+        }
+        statement.append(id);
+        String label = null;
+        if (pos < end && shapeAt(pos) >= 0 && !isArrowStart(pos)) {
+            label = appendShape(statement);
+        }
+        if (listener != null) listener.node(id, label);
+        return true;
+    }
+
+    // Ids are letters, digits and '_'; other characters LLMs put in ids (".", "-", ":") are replaced
+    private String readId() {
+        int start = pos;
+        boolean invalid = false;
+        while (pos < end) {
+            char c = text.charAt(pos);
+            if (Character.isLetterOrDigit(c) || c == '_') {
+                pos++;
+            } else if ((c == '.' || c == ':' || c == '$' || c == '-') && pos > start && pos + 1 < end
+                    && (Character.isLetterOrDigit(text.charAt(pos + 1)) || text.charAt(pos + 1) == '_')
+                    && !isArrowStart(pos)) {
+                invalid = true;
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos == start) return null;
+        String id = text.substring(start, pos);
+        if (!invalid) return id;
+        error("invalid character in node id '" + id + "'", start);
+        StringBuilder clean = new StringBuilder(id.length());
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            clean.append(Character.isLetterOrDigit(c) || c == '_' ? c : '_');
+        }
+        return clean.toString();
+    }
+
+    // Returns the label for the listener (null without one)
+    private String appendShape(StringBuilder statement) {
+        int shape = shapeAt(pos);
+        int open = pos;
+        int labelStart = pos + SHAPE_OPEN[shape].length();
+        String close = SHAPE_CLOSE[shape];
+        int labelEnd = closeOf(labelStart, close);
+        if (labelEnd < 0) {
+            error("label opened with '" + SHAPE_OPEN[shape] + "' is never closed", open);
+            labelEnd = arrowOrEnd(labelStart);
+            pos = labelEnd;
+        } else {
+            pos = labelEnd + close.length();
+        }
+        statement.append(SHAPE_OPEN[shape]);
+        String label = appendLabel(statement, labelStart, labelEnd, true);
+        statement.append(close);
+        return label;
+    }
+
+    // quoted labels may contain the closing delimiter, e.g. A["cols[0]"]
+    private int closeOf(int from, String close) {
+        int start = from;
+        while (start < end && text.charAt(start) == ' ') start++;
+        if (start < end && text.charAt(start) == '"') {
+            int quote = find("\"", start + 1);
+            while (quote >= 0) {
+                int after = quote + 1;
+                while (after < end && text.charAt(after) == ' ') after++;
+                if (text.startsWith(close, after) && after + close.length() <= end) return after;
+                quote = find("\"", quote + 1);
+            }
+        }
+        return find(close, from);
+    }
+
+    /**
+     * Appends the label text between {@code from} and {@code to}: surrounding quotes are
+     * dropped, quotes inside the label become single quotes, and node labels are re-quoted.
+     * Returns the label as appended, without the added quotes, if there is a listener.
+     */
+    private String appendLabel(StringBuilder statement, int from, int to, boolean quote) {
+        while (from < to && Character.isWhitespace(text.charAt(from))) from++;
+        while (to > from && Character.isWhitespace(text.charAt(to - 1))) to--;
+        if (to - from >= 2 && text.charAt(from) == '"' && text.charAt(to - 1) == '"') {
+            from++;
+            to--;
+        }
+        if (quote) statement.append('"');
+        int labelStart = statement.length();
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                error("unescaped '\"' inside a label", i);
+                c = '\'';
+            } else if (!quote && c == '|') {
+                c = '/';
+            }
+            statement.append(c);
+        }
+        String label = listener != null ? statement.substring(labelStart) : null;
+        if (quote) statement.append('"');
+        return label;
+    }
+
+    /**
+     * Reads an arrow with its optional label: {@code -->}, {@code ---}, {@code -.->}, {@code ==>},
+     * {@code --x}, {@code --o}, {@code <-->}, {@code -->|label|} and {@code -- label -->}.
+     * Canonical output always uses the pipe form for labels.
+     */
+    private boolean appendEdge(StringBuilder statement) {
+        int start = pos;
+        if (!isArrowStart(pos)) {
+            if (text.startsWith("->", pos)) {
+                error("'->' is not a Mermaid arrow", pos);
+                pos += 2;
+                statement.append(" -->");
+                String label = appendPipeLabel(statement);
+                statement.append(' ');
+                if (listener != null) listener.edge(label);
+                return true;
+            }
+            return false;
+        }
+        if (text.charAt(pos) == '<') pos++;
+        int run = pos;
+        while (pos < end && (text.charAt(pos) == '-' || text.charAt(pos) == '=' || text.charAt(pos) == '.')) pos++;
+        String line = text.substring(run, pos);
+        boolean head = false;
+        if (pos < end && text.charAt(pos) == '>') {
+            pos++;
+            head = true;
+        } else if (pos + 1 < end && (text.charAt(pos) == 'x' || text.charAt(pos) == 'o')
+                && Character.isWhitespace(text.charAt(pos + 1))) {
+            pos++;
+            head = true;
+        }
+
+        if (!head && (line.equals("--") || line.equals("==") || line.equals("-."))) {
+            // inline label: A -- text --> B
+            String closing = line.equals("--") ? "-->" : line.equals("==") ? "==>" : ".->";
+            int close = find(closing, pos);
+            if (line.equals("--")) {
+                // an open link "-- text ---" ends the label as well
+                int open = find("---", pos);
+                if (open >= 0 && (close < 0 || open < close)) {
+                    close = open;
+                    closing = "---";
+                }
+            }
+            if (close >= 0) {
+                statement.append(' ').append(line.equals("-.") ? "-.->" : closing).append('|');
+                String label = appendLabel(statement, pos, close, false);
+                statement.append("| ");
+                pos = close + closing.length();
+                if (listener != null) listener.edge(label);
+                return true;
+            }
+            error("'" + line + "' starts a labelled edge that is never finished", start);
+            statement.append(" --> ");
+            if (listener != null) listener.edge(null);
+            return true;
+        }
+        statement.append(' ').append(text, start, pos);
+        String label = appendPipeLabel(statement);
+        statement.append(' ');
+        if (listener != null) listener.edge(label);
+        return true;
+    }
+
+    // Returns the label for the listener, or null if the edge has none
+    private String appendPipeLabel(StringBuilder statement) {
+        skipSpaces();
+        if (pos >= end || text.charAt(pos) != '|') return null;
+        int open = pos;
+        int close = find("|", pos + 1);
+        if (close < 0) {
+            error("edge label opened with '|' is never closed", open);
+            // the target is the last word on the line
+            close = end;
+            while (close > open + 1 && !Character.isWhitespace(text.charAt(close - 1))) close--;
+            if (close == open + 1) close = end;
+            statement.append('|');
+            String label = appendLabel(statement, open + 1, close, false);
+            statement.append('|');
+            pos = close;
+            return label;
+        }
+        statement.append('|');
+        String label = appendLabel(statement, open + 1, close, false);
+        statement.append('|');
+        pos = close + 1;
+        return label;
+    }
+
+    // ---- lexing helpers --------------------------------------------------------------------
+
+    // indexOf bounded to the current line, so a miss never scans the rest of the diagram
+    private int find(String needle, int from) {
+        for (int i = from, last = end - needle.length(); i <= last; i++) {
+            if (text.startsWith(needle, i)) return i;
+        }
+        return -1;
+    }
+
+    private boolean isArrowStart(int at) {
+        if (at >= end) return false;
+        char c = text.charAt(at);
+        if (c == '<') return at + 2 < end && (text.charAt(at + 1) == '-' || text.charAt(at + 1) == '=');
+        if (c != '-' && c != '=') return false;
+        if (at + 1 >= end) return false;
+        char d = text.charAt(at + 1);
+        return d == c || (c == '-' && d == '.');
+    }
+
+    private int shapeAt(int at) {
+        for (int s = 0; s < SHAPE_OPEN.length; s++) {
+            if (text.startsWith(SHAPE_OPEN[s], at) && at + SHAPE_OPEN[s].length() <= end) return s;
+        }
+        return -1;
+    }
+
+    private int arrowOrEnd(int from) {
+        for (int i = from; i < end; i++) {
+            if (text.charAt(i) == ' ' && isArrowStart(i + 1)) return i;
+        }
+        return end;
+    }
+
+    private int statementEnd() {
+        int semicolon = find(";", pos);
+        return semicolon >= 0 ? semicolon : end;
+    }
+
+    private boolean isStatementEnd(int at) {
+        return at >= end || text.charAt(at) == ';' || Character.isWhitespace(text.charAt(at));
+    }
+
+    private boolean startsWith(String prefix) {
+        return text.startsWith(prefix, pos) && pos + prefix.length() <= end;
+    }
+
+    private boolean startsWithWord(String word) {
+        if (!startsWith(word)) return false;
+        if (pos + word.length() == end) return true;
+        char next = text.charAt(pos + word.length());
+        return !Character.isLetterOrDigit(next) && next != '_';
+    }
+
+    private static boolean isDirection(String direction) {
+        for (String d : DIRECTIONS) {
+            if (d.equals(direction)) return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (pos < end && Character.isWhitespace(text.charAt(pos))) pos++;
+    }
+
+    private void trimEnd() {
+        while (end > pos && Character.isWhitespace(text.charAt(end - 1))) end--;
+    }
+
+    private StringBuilder line(int extraDepth) {
+        return out.append(indent(extraDepth));
+    }
+
+    private String indent(int extraDepth) {
+        int level = depth + 1 + extraDepth;
+        return level < INDENTS.length ? INDENTS[level] : " ".repeat(level * 4);
+    }
+
+    private void error(String message) {
+        error(message, pos);
+    }
+
+    private void error(String message, int at) {
+        diagnostics.add(new Diagnostic(lineNumber, at - lineStart + 1, message));
+    }
+}
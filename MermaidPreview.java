@@ -0,0 +1,171 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.Gson;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.ui.jcef.JBCefApp;
+import com.intellij.ui.jcef.JBCefBrowser;
+import org.cef.browser.CefBrowser;
+import org.cef.browser.CefFrame;
+import org.cef.handler.CefLoadHandlerAdapter;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Function;
+
+/**
+ * Diagram preview backed by one JCEF browser for the lifetime of the panel. The page with
+ * mermaid.js is loaded once; each refresh only pushes the new diagram text to a render
+ * function in the page, so mermaid isn't fetched or parsed again. The page loads the extracted
+ * local mermaid.js, or the CDN copy in builds without the bundle. Without JCEF support the
+ * preview falls back to a JEditorPane showing the full generated page.
+ */
+public class MermaidPreview implements Disposable {
+
+    private static final Logger LOG = Logger.getInstance(MermaidPreview.class);
+
+    private static final Gson GSON = new Gson();
+    private static final String PAGE_NAME = "preview.html";
+
+    private final JBCefBrowser browser;
+    private final JEditorPane fallback;
+    private final Function<String, String> fallbackPage;
+    private final JComponent component;
+    private boolean loaded;
+    private String pending;
+
+    public MermaidPreview(Function<String, String> fallbackPage) {
+        this.fallbackPage = fallbackPage;
+        String pageUrl = JBCefApp.isSupported() ? pageUrl() : null;
+        if (pageUrl != null) {
+            browser = new JBCefBrowser();
+            fallback = null;
+            browser.getJBCefClient().addLoadHandler(new CefLoadHandlerAdapter() {
+                @Override
+                public void onLoadEnd(CefBrowser cefBrowser, CefFrame frame, int httpStatusCode) {
+                    if (!frame.isMain()) return;
+                    SwingUtilities.invokeLater(() -> {
+                        loaded = true;
+                        if (pending != null) push(pending);
+                    });
+                }
+            }, browser.getCefBrowser());
+            browser.loadURL(pageUrl);
+            component = browser.getComponent();
+        } else {
+            browser = null;
+            fallback = new JEditorPane("text/html", fallbackPage.apply(null));
+            fallback.setEditable(false);
+            fallback.setBackground(Color.WHITE);
+            fallback.setBorder(new EmptyBorder(10, 10, 10, 10));
+            component = new JBScrollPane(fallback);
+        }
+    }
+
+    public JComponent getComponent() {
+        return component;
+    }
+
+    /** Shows {@code mermaid} (null or empty for "no diagram"). Must be called on the EDT. */
+    public void render(String mermaid) {
+        String diagram = mermaid == null ? "" : mermaid;
+        if (browser == null) {
+            fallback.setText(fallbackPage.apply(mermaid));
+            fallback.revalidate();
+            fallback.repaint();
+            return;
+        }
+        pending = diagram;
+        if (loaded) push(diagram);
+    }
+
+    private void push(String diagram) {
+        pending = null;
+        CefBrowser cef = browser.getCefBrowser();
+        cef.executeJavaScript("renderDiagram(" + GSON.toJson(diagram) + ");", cef.getURL(), 0);
+    }
+
+    @Override
+    public void dispose() {
+        if (browser != null) Disposer.dispose(browser);
+    }
+
+    // The shell page in the IDE system dir; rewritten only when its content changes
+    private static synchronized String pageUrl() {
+        Path page = Paths.get(PathManager.getSystemPath(), "spark-lineage", PAGE_NAME);
+        try {
+            String html = pageHtml(MermaidAssets.scriptTag(false));
+            if (!Files.isRegularFile(page) || !Files.readString(page, StandardCharsets.UTF_8).equals(html)) {
+                Files.createDirectories(page.getParent());
+                Files.writeString(page, html, StandardCharsets.UTF_8);
+            }
+            return page.toUri().toString();
+        } catch (IOException e) {
+            LOG.warn("could not write mermaid preview page : " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static String pageHtml(String scriptTag) {
+        return "<!DOCTYPE html>\n" +
+                "<html>\n" +
+                "<head>\n" +
+                "    <meta charset=\"utf-8\">\n" +
+                "    " + scriptTag + "\n" +
+                "    <style>\n" +
+                "        body { font-family: 'Segoe UI', Tahoma, Geneva, Verdana, sans-serif; margin: 0; padding: 20px; background: #fafafa; }\n" +
+                "        #diagram { background: white; border-radius: 15px; padding: 30px; box-shadow: 0 8px 25px rgba(0,0,0,0.1); border: 1px solid #e0e0e0; text-align: center; }\n" +
+                "        .message { color: #666; padding: 40px; }\n" +
+                "        .error { color: #d32f2f; text-align: left; white-space: pre-wrap; }\n" +
+                "    </style>\n" +
+                "</head>\n" +
+                "<body>\n" +
+                "    <div id=\"diagram\"><div class=\"message\">Waiting for lineage...</div></div>\n" +
+                "    <script>\n" +
+                "        mermaid.initialize({\n" +
+                "            startOnLoad: false,\n" +
+                "            theme: 'default',\n" +
+                "            themeVariables: {\n" +
+                "                primaryColor: '#4CAF50',\n" +
+                "                primaryTextColor: '#333',\n" +
+                "                primaryBorderColor: '#2196F3',\n" +
+                "                lineColor: '#666',\n" +
+                "                secondaryColor: '#f8f9fa',\n" +
+                "                tertiaryColor: '#e3f2fd',\n" +
+                "                background: '#ffffff',\n" +
+                "                mainBkg: '#ffffff',\n" +
+                "                secondaryBkg: '#f0f0f0'\n" +
+                "            },\n" +
+                "            flowchart: { useMaxWidth: true, htmlLabels: true }\n" +
+                "        });\n" +
+                "        var renderCount = 0;\n" +
+                "        function escapeHtml(text) {\n" +
+                "            return text.replace(/&/g, '&amp;').replace(/</g, '&lt;').replace(/>/g, '&gt;');\n" +
+                "        }\n" +
+                "        async function renderDiagram(text) {\n" +
+                "            var target = document.getElementById('diagram');\n" +
+                "            if (!text) {\n" +
+                "                target.innerHTML = '<div class=\"message\">No Mermaid diagram found</div>';\n" +
+                "                return;\n" +
+                "            }\n" +
+                "            try {\n" +
+                "                var result = await mermaid.render('lineage' + (++renderCount), text);\n" +
+                "                target.innerHTML = result.svg;\n" +
+                "            } catch (e) {\n" +
+                "                target.innerHTML = '<pre class=\"error\">' + escapeHtml(String(e.message || e)) + '</pre>';\n" +
+                "            }\n" +
+                "        }\n" +
+                "    </script>\n" +
+                "</body>\n" +
+                "</html>\n";
+    }
+}
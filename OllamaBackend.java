@@ -0,0 +1,79 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.Consumer;
+
+/**
+ * Local Ollama server, {@code /api/chat}. Streams newline-delimited JSON objects.
+ *
+ * The instructions go in a system message ahead of the user part and {@code keep_alive} keeps
+ * the model loaded between calls, so Ollama finds the instruction tokens already in its KV
+ * cache and only evaluates the new code. {@code prompt_eval_count} in the stream's last line
+ * shows how many prompt tokens actually had to be evaluated.
+ */
+public class OllamaBackend extends HttpLLMBackend {
+
+    private static final Logger LOG = Logger.getInstance(OllamaBackend.class);
+
+    private final String chatUrl;
+    private final String keepAlive;
+
+    public OllamaBackend(String baseUrl, String model) {
+        this(baseUrl, model, null);
+    }
+
+    /** @param keepAlive how long the model stays loaded after a call, e.g. "30m"; null for the server default */
+    public OllamaBackend(String baseUrl, String model, String keepAlive) {
+        super(model);
+        this.chatUrl = trimSlash(baseUrl) + "/api/chat";
+        this.keepAlive = keepAlive == null || keepAlive.isBlank() ? null : keepAlive.trim();
+    }
+
+    @Override
+    public String name() {
+        return "ollama";
+    }
+
+    @Override
+    public String complete(LLMPrompt prompt) throws IOException {
+        Request request = new Request.Builder().url(chatUrl).post(chatBody(prompt, false)).build();
+        try (Response response = execute(request)) {
+            String text = JsonStreams.readString(response.body().charStream(), "message", "content");
+            if (text == null) throw new IOException("Ollama response contained no message content");
+            return text;
+        }
+    }
+
+    @Override
+    public String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        Request request = new Request.Builder().url(chatUrl).post(chatBody(prompt, true)).build();
+        return readStream(request, onToken, line -> {
+            if (line.isBlank()) return null;
+            if (line.contains("\"prompt_eval_count\"")) {
+                logPromptTokens(prompt, JsonStreams.readLong(new StringReader(line), -1, "prompt_eval_count"));
+                long evalNanos = JsonStreams.readLong(new StringReader(line), -1, "prompt_eval_duration");
+                if (evalNanos >= 0) LOG.debug("prompt eval : " + evalNanos / 1_000_000 + " ms");
+            }
+            return JsonStreams.readString(new StringReader(line), "message", "content");
+        });
+    }
+
+    private RequestBody chatBody(LLMPrompt prompt, boolean stream) {
+        return jsonBody(writer -> {
+            writer.beginObject().name("model").value(modelId());
+            chatMessages(writer, prompt);
+            if (keepAlive != null) writer.name("keep_alive").value(keepAlive);
+            writer.name("stream").value(stream).endObject();
+        });
+    }
+
+    static String trimSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
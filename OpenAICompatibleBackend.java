@@ -0,0 +1,64 @@
+package com.yourplugin.sparklineageplugin;
+
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.function.Consumer;
+
+/**
+ * Any server speaking the OpenAI {@code /chat/completions} protocol: OpenAI itself, vLLM,
+ * LM Studio, llama.cpp's server, Ollama's {@code /v1} endpoint, or the local stub server.
+ */
+public class OpenAICompatibleBackend extends HttpLLMBackend {
+
+    private final String completionsUrl;
+    private final String apiKey;
+
+    /** @param baseUrl e.g. {@code https://api.openai.com/v1} */
+    public OpenAICompatibleBackend(String baseUrl, String apiKey, String model) {
+        super(model);
+        this.completionsUrl = OllamaBackend.trimSlash(baseUrl) + "/chat/completions";
+        this.apiKey = apiKey;
+    }
+
+    @Override
+    public String name() {
+        return "openai";
+    }
+
+    @Override
+    public String complete(LLMPrompt prompt) throws IOException {
+        try (Response response = execute(request(prompt, false))) {
+            String text = JsonStreams.readString(response.body().charStream(), "choices", "0", "message", "content");
+            if (text == null) throw new IOException("completion response contained no message content");
+            return text;
+        }
+    }
+
+    @Override
+    public String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        return readStream(request(prompt, true), onToken, line -> {
+            if (!line.startsWith("data:")) return null;
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) return null;
+            return JsonStreams.readString(new StringReader(data), "choices", "0", "delta", "content");
+        });
+    }
+
+    // the system message comes first and never changes, which is what OpenAI's automatic prompt caching keys on
+    private Request request(LLMPrompt prompt, boolean stream) {
+        RequestBody body = jsonBody(writer -> {
+            writer.beginObject().name("model").value(modelId());
+            chatMessages(writer, prompt);
+            writer.name("stream").value(stream).endObject();
+        });
+        Request.Builder request = new Request.Builder().url(completionsUrl).post(body);
+        if (apiKey != null && !apiKey.isEmpty()) {
+            request.addHeader("Authorization", "Bearer " + apiKey);
+        }
+        return request.build();
+    }
+}
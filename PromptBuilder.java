@@ -1,6 +1,38 @@
 package com.yourplugin.sparklineageplugin;
 
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 public class PromptBuilder {
+
+    private static final Logger LOG = Logger.getInstance(PromptBuilder.class);
+
+    private static final String METHOD_HEADER = "// Method: ";
+    private static final String TRUNCATION_HEADER = "// Context truncated";
+    // room left for the model's answer (report + Mermaid diagram)
+    private static final int RESERVED_OUTPUT_TOKENS = 8192;
+    private static final int DEFAULT_CONTEXT_WINDOW = 32_768;
+    private static final Map<String, Integer> CONTEXT_WINDOWS = new HashMap<>();
+
+    static {
+        CONTEXT_WINDOWS.put("gemma3:4b", 131_072);
+        CONTEXT_WINDOWS.put("gemma-3-4b-it", 131_072);
+        CONTEXT_WINDOWS.put("gpt-4o", 128_000);
+    }
+
+    // Dataset operations that make a method worth keeping when the code has to be cut down
+    private static final Pattern SPARK_OPS = Pattern.compile(
+            "\\.(read|readStream|table|sql|load|csv|parquet|json|orc|select|selectExpr|withColumn|withColumnRenamed|drop|"
+                    + "filter|where|join|groupBy|agg|union|unionByName|distinct|dropDuplicates|explode|"
+                    + "write|writeStream|saveAsTable|insertInto|save|repartition|cache|persist)\\s*\\("
+                    + "|\\b(Dataset|DataFrame|Row|SparkSession|functions)\\b");
    /* public static String buildPrompt(String sparkCode) {
         StringBuilder prompt = new StringBuilder();
         prompt.append("Analyze the following Apache Spark code and generate a full data lineage report.\n\n")
@@ -27,47 +59,235 @@ public class PromptBuilder {
         return  prompt.toString();
     }
 */
-    public static String buildPrompt(String sparkCode) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You're a data engineering assistant. Analyze the following Apache Spark job and provide a complete data lineage report.\n\n")
-
-                .append("Specifically, your response must include:\n\n")
-
-                .append("1. Identify and list all **source datasets/tables/files** the job reads from.\n")
-                .append("2. For each dataset, describe the **schema and any filters applied** when reading.\n")
-                .append("3. Trace every transformation applied on the datasets, including:\n")
-                .append("   - Filter, map, select, withColumn, drop\n")
-                .append("   - Joins (inner, outer, left, right) and explain join keys and types\n")
-                .append("   - Aggregations like groupBy or reduceByKey, with grouping columns\n")
-                .append("   - Any user-defined functions or custom logic\n")
-                .append("4. Show how datasets are **combined, split, or branched** throughout the job.\n")
-                .append("5. Identify the **final output dataset(s)** – where the result is stored (e.g., tables, files).\n")
-                .append("6. Map every output dataset **back to its original source(s)** and the transformations applied.\n")
-                .append("7. Provide **code snippets or pseudo-code** for each major step, to support clarity.\n")
-                .append("8. If present, explain the effect of **cache, checkpoint, repartition, etc.**, on lineage.\n")
-                .append("9. Summarize the lineage in a **Mermaid diagram** with:\n")
-                .append("   - Datasets as nodes\n")
-                .append("   - Transformations as arrows (edges)\n")
-                .append("   - Show **column-level mappings** from each input to output\n")
-                .append("   - Ensure Mermaid syntax is **valid** and renders correctly in `.md` files (no broken brackets or missing graph direction)\n")
-                .append("10. Highlight any **data quality or transformation risks** detected in the job.\n\n")
-
-                .append("Additional Instructions:\n")
-                .append("- Use **clear, simple language** suitable for Spark developers.\n")
-                .append("- **Avoid jargon** unless explained.\n")
-                .append("- Number each section clearly.\n")
-                .append("- **Include column names** and mapping where possible.\n")
-                .append("- If external systems (Hive, Kafka, Delta Lake, etc.) are involved, explain their impact on lineage.\n")
-                .append("- Mention assumptions if the code is ambiguous or incomplete.\n\n")
-
-                .append("Please provide the detailed data lineage report as instructed, including the Mermaid diagram for visualization.\n")
-                .append("Mermaid should contain **all the column info** as well.\n")
-                .append("Give me **detailed columns of each dataset** and **mappings till the final dataset** for all.\n\n")
-                .append("very important to note that add column names of datasets also in mermaid diagram")
-                .append("Here is the Spark job code to analyze:\n\n")
-                .append(sparkCode);
+    // Sent as the system message of every lineage prompt; keep it constant so backends can reuse its cached prefix
+    static final String LINEAGE_INSTRUCTIONS =
+            "You're a data engineering assistant. Analyze the following Apache Spark job and provide a complete data lineage report.\n\n"
+
+                    + "Specifically, your response must include:\n\n"
+
+                    + "1. Identify and list all **source datasets/tables/files** the job reads from.\n"
+                    + "2. For each dataset, describe the **schema and any filters applied** when reading.\n"
+                    + "3. Trace every transformation applied on the datasets, including:\n"
+                    + "   - Filter, map, select, withColumn, drop\n"
+                    + "   - Joins (inner, outer, left, right) and explain join keys and types\n"
+                    + "   - Aggregations like groupBy or reduceByKey, with grouping columns\n"
+                    + "   - Any user-defined functions or custom logic\n"
+                    + "4. Show how datasets are **combined, split, or branched** throughout the job.\n"
+                    + "5. Identify the **final output dataset(s)** – where the result is stored (e.g., tables, files).\n"
+                    + "6. Map every output dataset **back to its original source(s)** and the transformations applied.\n"
+                    + "7. Provide **code snippets or pseudo-code** for each major step, to support clarity.\n"
+                    + "8. If present, explain the effect of **cache, checkpoint, repartition, etc.**, on lineage.\n"
+                    + "9. Summarize the lineage in a **Mermaid diagram** with:\n"
+                    + "   - Every dataset as a `subgraph` whose nodes are its columns\n"
+                    + "   - Transformations as arrows (edges) from each source column node to the target column nodes it feeds\n"
+                    + "   - Column node IDs prefixed with their dataset ID (for example `orders_customer_id`), so they are unique\n"
+                    + "   - Ensure Mermaid syntax is **valid** and renders correctly in `.md` files (no broken brackets or missing graph direction)\n"
+                    + "10. Highlight any **data quality or transformation risks** detected in the job.\n\n"
+
+                    + "Additional Instructions:\n"
+                    + "- Use **clear, simple language** suitable for Spark developers.\n"
+                    + "- **Avoid jargon** unless explained.\n"
+                    + "- Number each section clearly.\n"
+                    + "- **Include column names** and mapping where possible.\n"
+                    + "- If external systems (Hive, Kafka, Delta Lake, etc.) are involved, explain their impact on lineage.\n"
+                    + "- Mention assumptions if the code is ambiguous or incomplete.\n\n"
+
+                    + "Please provide the detailed data lineage report as instructed, including the Mermaid diagram for visualization.\n"
+                    + "Mermaid should contain **all the column info** as well.\n"
+                    + "Give me **detailed columns of each dataset** and **mappings till the final dataset** for all.\n\n"
+                    + "very important to note that add column names of datasets also in mermaid diagram";
+
+    static final String CHUNK_INSTRUCTIONS =
+            "You're a data engineering assistant. You are given one part of a large Apache Spark job. "
+                    + "Other parts are analyzed separately and merged afterwards.\n\n"
+                    + "Return ONLY a Mermaid flowchart in a ```mermaid code block, starting with `graph TD`, that shows:\n"
+                    + "- every dataset, table or file read, derived or written in this part, as a node\n"
+                    + "- every transformation between them as an edge labelled with the operation\n"
+                    + "- every dataset as a `subgraph` whose nodes are its columns, with edges from each source column node "
+                    + "to the target column nodes it feeds\n\n"
+                    + "Node IDs must be the dataset, variable or table name in snake_case (for example `sales_orders`), "
+                    + "so the same dataset gets the same ID in every part; column node IDs are the dataset ID, an underscore "
+                    + "and the column name. Do not add explanations outside the code block.";
+
+    static final String REPAIR_INSTRUCTIONS =
+            "You're a data engineering assistant. You are given a Mermaid lineage diagram of a Spark job, a list of its "
+                    + "problems and the job's code. When there is no diagram yet, you get the previous answer instead; "
+                    + "draw the diagram from that answer and the code.\n\n"
+                    + "Fix exactly these problems and keep everything else unchanged. Every dataset must be a "
+                    + "subgraph listing its columns as nodes, with edges from each source column to the target columns it feeds. "
+                    + "Quote every node label and escape quotes inside labels.\n"
+                    + "Return ONLY the corrected diagram in a ```mermaid code block, starting with `graph TD`.";
+
+    private static final String CODE_HEADER = "Here is the Spark job code to analyze:\n\n";
+    private static final String REPAIR_CODE_HEADER = "The diagram describes this Spark code:\n\n";
+
+    public static LLMPrompt buildPrompt(String sparkCode) {
+        return buildPrompt(sparkCode, codeBudget(LLMClient.currentModelId()));
+    }
+
+    /**
+     * Same as {@link #buildPrompt(String)}, but hands the model the lineage graph that
+     * {@link StaticLineageAnalyzer} already extracted, so it annotates and completes it
+     * instead of rediscovering it. The skeleton goes after the instructions, into the user
+     * message, so the cached instruction prefix stays intact.
+     */
+    public static LLMPrompt buildPrompt(String sparkCode, String staticMermaid) {
+        if (staticMermaid == null || staticMermaid.isEmpty()) {
+            return buildPrompt(sparkCode);
+        }
+        String skeleton = "A static analysis of the code already extracted this lineage skeleton:\n\n```mermaid\n"
+                + staticMermaid + "\n```\n\n"
+                + "Keep its datasets and edges (correct them only if the code clearly disagrees), "
+                + "and complete it with the missing column mappings, filters, join details and explanations.\n\n";
+        LLMPrompt prompt = buildPrompt(sparkCode, codeBudget(LLMClient.currentModelId()) - estimateTokens(skeleton));
+        return LLMPrompt.of(prompt.system, skeleton + prompt.user);
+    }
+
+    /**
+     * Builds the lineage prompt, cutting the collected code down to the highest-value methods
+     * when the whole prompt would not fit into {@code targetTokens}.
+     */
+    public static LLMPrompt buildPrompt(String sparkCode, int targetTokens) {
+        int codeBudget = targetTokens - estimateTokens(LINEAGE_INSTRUCTIONS) - estimateTokens(CODE_HEADER);
+        LLMPrompt prompt = LLMPrompt.of(LINEAGE_INSTRUCTIONS, CODE_HEADER + fitToBudget(sparkCode, codeBudget));
+        LOG.debug("estimated prompt tokens : " + estimateTokens(prompt.text()) + " (target " + targetTokens + ")");
+        return prompt;
+    }
+
+    /**
+     * Prompt for one chunk of a job that is too large for a single prompt. The model only returns
+     * Mermaid nodes and edges for its chunk, using node IDs derived from dataset names so that
+     * fragments from different chunks line up when they are merged.
+     */
+    public static LLMPrompt buildChunkPrompt(String chunkCode, int index, int total) {
+        return LLMPrompt.of(CHUNK_INSTRUCTIONS, "This is part " + index + " of " + total + ".\n\n"
+                + "Here is the Spark code for this part:\n\n" + chunkCode);
+    }
+
+    /**
+     * Follow-up prompt for a first answer whose diagram failed validation: the concrete problems,
+     * the diagram, and the code it has to match, cut down to what fits next to them. The prose of
+     * the first answer is only sent when it has no diagram at all, as the material to draw one from.
+     */
+    public static LLMPrompt buildRepairPrompt(String mermaid, List<String> problems, String firstAnswer,
+                                              String sparkCode) {
+        StringBuilder prompt = new StringBuilder(mermaid != null
+                ? "This Mermaid lineage diagram has the following problems:\n\n"
+                : "The previous lineage answer has the following problems:\n\n");
+        for (String problem : problems) {
+            prompt.append("- ").append(problem).append("\n");
+        }
+        if (mermaid != null) {
+            prompt.append("\n```mermaid\n").append(mermaid).append("\n```\n\n");
+        } else {
+            prompt.append("\nPrevious answer:\n\n").append(firstAnswer == null ? "" : firstAnswer).append("\n\n");
+        }
+        int codeBudget = codeBudget(LLMClient.currentModelId()) - estimateTokens(REPAIR_INSTRUCTIONS)
+                - estimateTokens(prompt) - estimateTokens(REPAIR_CODE_HEADER);
+        prompt.append(REPAIR_CODE_HEADER).append(fitToBudget(sparkCode, codeBudget));
+        return LLMPrompt.of(REPAIR_INSTRUCTIONS, prompt.toString());
+    }
+
+    public static int codeBudget(String modelId) {
+        return contextWindow(modelId) - RESERVED_OUTPUT_TOKENS;
+    }
+
+    public static int contextWindow(String modelId) {
+        return CONTEXT_WINDOWS.getOrDefault(modelId, DEFAULT_CONTEXT_WINDOW);
+    }
+
+    /**
+     * Rough token count for the Gemma/GPT style tokenizers we use: source code averages
+     * about 3.5 characters per token, so this errs on the side of over-counting.
+     */
+    public static int estimateTokens(CharSequence text) {
+        return (int) Math.ceil(text.length() / 3.5);
+    }
+
+    /**
+     * Keeps the selected method plus the callees that do the most Spark dataset work, until the
+     * token budget is used up. Kept methods stay in their original order.
+     */
+    static String fitToBudget(String sparkCode, int budgetTokens) {
+        if (estimateTokens(sparkCode) <= budgetTokens) {
+            return sparkCode;
+        }
+        List<String> blocks = splitMethods(sparkCode);
+        String truncationNote = "";
+        if (!blocks.isEmpty() && blocks.get(blocks.size() - 1).startsWith(TRUNCATION_HEADER)) {
+            truncationNote = blocks.remove(blocks.size() - 1);
+        }
+
+        List<Integer> ranked = new ArrayList<>();
+        for (int i = 1; i < blocks.size(); i++) {
+            ranked.add(i);
+        }
+        int[] scores = new int[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            scores[i] = sparkScore(blocks.get(i));
+        }
+        ranked.sort(Comparator.<Integer>comparingInt(i -> -scores[i]).thenComparingInt(i -> blocks.get(i).length()));
+
+        boolean[] keep = new boolean[blocks.size()];
+        // the selected method always goes in, even if it alone blows the budget
+        keep[0] = true;
+        int used = estimateTokens(blocks.get(0)) + estimateTokens(truncationNote);
+        List<String> dropped = new ArrayList<>();
+        for (int i : ranked) {
+            int cost = estimateTokens(blocks.get(i));
+            if (scores[i] > 0 && used + cost <= budgetTokens) {
+                keep[i] = true;
+                used += cost;
+            } else {
+                dropped.add(methodName(blocks.get(i)));
+            }
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < blocks.size(); i++) {
+            if (keep[i]) result.append(blocks.get(i));
+        }
+        result.append(truncationNote);
+        if (!dropped.isEmpty()) {
+            result.append("// Left out to fit the model context (").append(dropped.size()).append(" methods): ")
+                    .append(String.join(", ", dropped)).append("\n");
+        }
+        LOG.debug("prompt budget " + budgetTokens + " tokens: kept " + (blocks.size() - dropped.size())
+                + " of " + blocks.size() + " methods");
+        return result.toString();
+    }
+
+    static List<String> splitMethods(String sparkCode) {
+        List<String> blocks = new ArrayList<>();
+        int start = 0;
+        while (start < sparkCode.length()) {
+            int next = sparkCode.indexOf("\n" + METHOD_HEADER, start + 1);
+            int truncation = sparkCode.indexOf("\n" + TRUNCATION_HEADER, start + 1);
+            if (truncation >= 0 && (next < 0 || truncation < next)) {
+                blocks.add(sparkCode.substring(start, truncation + 1));
+                blocks.add(sparkCode.substring(truncation + 1));
+                return blocks;
+            }
+            int end = next < 0 ? sparkCode.length() : next + 1;
+            blocks.add(sparkCode.substring(start, end));
+            start = end;
+        }
+        return blocks;
+    }
+
+    private static int sparkScore(String block) {
+        int score = 0;
+        Matcher matcher = SPARK_OPS.matcher(block);
+        while (matcher.find()) {
+            score++;
+        }
+        return score;
+    }
 
-        return prompt.toString();
+    private static String methodName(String block) {
+        int end = block.indexOf('\n');
+        String header = end < 0 ? block : block.substring(0, end);
+        return header.startsWith(METHOD_HEADER) ? header.substring(METHOD_HEADER.length()) : header;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,148 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Sends the same prompt to several backends at once and takes the first usable answer, then
+ * cancels the others. Latency becomes the minimum of the backends' latencies, so one slow or
+ * stalled backend no longer sets the tail.
+ *
+ * {@link #complete} takes the first answer that passes the validity check; an answer that
+ * fails it, or a backend that errors, just leaves the race to the rest. {@link #stream} can't
+ * un-show tokens, so there the first backend to produce a token wins and the others are
+ * dropped at their first token.
+ */
+public class RacingBackend implements LLMBackend {
+
+    private static final Logger LOG = Logger.getInstance(RacingBackend.class);
+
+    private final String modelId;
+    private final ExecutorService executor;
+    private final Predicate<String> valid;
+    private final LLMBackend[] backends;
+
+    /**
+     * @param modelId the model prompts are budgeted for; should be the one with the smallest
+     *                context window, since every backend gets the same prompt
+     */
+    public RacingBackend(String modelId, ExecutorService executor, Predicate<String> valid, LLMBackend... backends) {
+        if (backends.length < 2) throw new IllegalArgumentException("a race needs at least two backends");
+        this.modelId = modelId;
+        this.executor = executor;
+        this.valid = valid;
+        this.backends = backends.clone();
+    }
+
+    @Override
+    public String name() {
+        StringBuilder name = new StringBuilder("race(");
+        for (int i = 0; i < backends.length; i++) {
+            if (i > 0) name.append(" | ");
+            name.append(backends[i].name()).append('/').append(backends[i].modelId());
+        }
+        return name.append(')').toString();
+    }
+
+    @Override
+    public String modelId() {
+        return modelId;
+    }
+
+    @Override
+    public String metrics() {
+        StringBuilder metrics = new StringBuilder();
+        for (LLMBackend backend : backends) {
+            String part = backend.metrics();
+            if (part.isEmpty()) continue;
+            if (metrics.length() > 0) metrics.append("; ");
+            metrics.append(part);
+        }
+        return metrics.toString();
+    }
+
+    @Override
+    public String complete(LLMPrompt prompt) throws IOException {
+        return race(i -> backends[i].complete(prompt), null);
+    }
+
+    @Override
+    public String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        AtomicInteger owner = new AtomicInteger(-1);
+        return race(i -> backends[i].stream(prompt, token -> {
+            if (owner.get() != i && !owner.compareAndSet(-1, i)) {
+                throw new CancellationException("lost the race");
+            }
+            onToken.accept(token);
+        }), owner);
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        String run(int backend) throws IOException;
+    }
+
+    /**
+     * Runs {@code call} for every backend and returns the winning answer. With a stream
+     * {@code owner}, the winner is the backend that claimed the stream; otherwise it is the
+     * first valid answer to arrive.
+     */
+    private String race(Call call, AtomicInteger owner) throws IOException {
+        long start = System.nanoTime();
+        ExecutorCompletionService<String> completed = new ExecutorCompletionService<>(executor);
+        List<Future<String>> futures = new ArrayList<>(backends.length);
+        for (int i = 0; i < backends.length; i++) {
+            int backend = i;
+            futures.add(completed.submit(() -> call.run(backend)));
+        }
+        List<String> failures = new ArrayList<>();
+        try {
+            for (int pending = backends.length; pending > 0; pending--) {
+                Future<String> done = completed.take();
+                int backend = futures.indexOf(done);
+                String text;
+                try {
+                    text = done.get();
+                } catch (ExecutionException | CancellationException e) {
+                    Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                    if (owner != null && owner.get() == backend) throw asIOException(cause);
+                    if (!(cause instanceof CancellationException)) {
+                        failures.add(backends[backend].name() + ": " + cause.getMessage());
+                    }
+                    continue;
+                }
+                boolean wins = owner != null
+                        ? owner.get() == backend || owner.compareAndSet(-1, backend)
+                        : valid.test(text);
+                if (!wins) {
+                    if (owner == null) failures.add(backends[backend].name() + ": answer failed validation");
+                    continue;
+                }
+                LOG.debug("race : " + backends[backend].name() + "/" + backends[backend].modelId()
+                        + " won after " + (System.nanoTime() - start) / 1_000_000 + " ms");
+                return text;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("LLM race interrupted", e);
+        } finally {
+            for (Future<String> future : futures) future.cancel(true);
+        }
+        throw new IOException("no backend produced a usable answer (" + String.join("; ", failures) + ")");
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause.getMessage(), cause);
+    }
+}
@@ -0,0 +1,34 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+
+/**
+ * Spaces LLM requests evenly so a batch run doesn't flood the backend: at most
+ * {@code permitsPerSecond} calls start per second, across all worker threads.
+ */
+public class RequestRateLimiter {
+
+    private final long intervalNanos;
+    private long nextFreeNanos = System.nanoTime();
+
+    public RequestRateLimiter(double permitsPerSecond) {
+        this.intervalNanos = (long) (1_000_000_000L / permitsPerSecond);
+    }
+
+    public void acquire() {
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(now, nextFreeNanos);
+            nextFreeNanos = slot + intervalNanos;
+            waitNanos = slot - now;
+        }
+        if (waitNanos <= 0) return;
+        try {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ProcessCanceledException(e);
+        }
+    }
+}
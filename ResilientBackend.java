@@ -0,0 +1,182 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Wraps one backend with the protections every call should get:
+ * <ul>
+ *   <li>an {@link AdaptiveConcurrencyLimiter}, so a batch run can't flood the backend;</li>
+ *   <li>retries on 429, 5xx and refused connections, with jittered exponential backoff that
+ *       never waits less than the server's Retry-After;</li>
+ *   <li>a {@link CircuitBreaker}, so a backend that is down fails fast instead of every call
+ *       waiting out its own retries.</li>
+ * </ul>
+ * A stream is only retried if it failed before its first token; after that the caller has
+ * already shown part of the answer.
+ */
+public class ResilientBackend implements LLMBackend {
+
+    private static final Logger LOG = Logger.getInstance(ResilientBackend.class);
+
+    static final int MAX_ATTEMPTS = 4;
+    static final long BASE_DELAY_MILLIS = 1_000;
+    static final long MAX_DELAY_MILLIS = 30_000;
+    // a server asking for a longer pause than this is effectively down; give up instead
+    static final long MAX_RETRY_AFTER_MILLIS = 120_000;
+
+    private final LLMBackend delegate;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final CircuitBreaker breaker;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ResilientBackend(LLMBackend delegate) {
+        this(delegate, new AdaptiveConcurrencyLimiter(4, 1, 32),
+                new CircuitBreaker(delegate.name(), 5, 30_000));
+    }
+
+    ResilientBackend(LLMBackend delegate, AdaptiveConcurrencyLimiter limiter, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public String name() {
+        return delegate.name();
+    }
+
+    @Override
+    public String modelId() {
+        return delegate.modelId();
+    }
+
+    @Override
+    public String complete(LLMPrompt prompt) throws IOException {
+        return call(() -> delegate.complete(prompt), null);
+    }
+
+    @Override
+    public String stream(LLMPrompt prompt, Consumer<String> onToken) throws IOException {
+        AtomicBoolean started = new AtomicBoolean();
+        return call(() -> delegate.stream(prompt, token -> {
+            started.set(true);
+            onToken.accept(token);
+        }), started);
+    }
+
+    @Override
+    public String metrics() {
+        return delegate.name() + ": in flight " + limiter.inFlight() + "/" + limiter.limit()
+                + ", queued " + limiter.queueDepth() + ", calls " + calls.get() + ", retries " + retries.get()
+                + ", failed " + failures.get() + ", circuit " + breaker.state();
+    }
+
+    @FunctionalInterface
+    private interface Attempt {
+        String run() throws IOException;
+    }
+
+    private String call(Attempt attempt, AtomicBoolean streamStarted) throws IOException {
+        calls.incrementAndGet();
+        for (int n = 1; ; n++) {
+            long ticket = limiter.acquire();
+            try {
+                breaker.beforeCall();
+            } catch (CircuitBreaker.OpenException e) {
+                limiter.release(ticket, AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+                failures.incrementAndGet();
+                throw e;
+            }
+            try {
+                String text = attempt.run();
+                limiter.release(ticket, AdaptiveConcurrencyLimiter.Outcome.SUCCESS);
+                breaker.onSuccess();
+                return text;
+            } catch (IOException e) {
+                record(ticket, e);
+                boolean retryable = isRetryable(e) && n < MAX_ATTEMPTS
+                        && (streamStarted == null || !streamStarted.get());
+                long delay = retryable ? delayMillis(n, e) : -1;
+                if (delay < 0) {
+                    failures.incrementAndGet();
+                    throw e;
+                }
+                retries.incrementAndGet();
+                LOG.debug("retry : " + delegate.name() + " attempt " + n + " failed (" + e.getMessage()
+                        + "), retrying in " + delay + " ms");
+                sleep(delay);
+            } catch (RuntimeException e) {
+                // e.g. a race consumer aborting the losing stream
+                limiter.release(ticket, AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+                breaker.onCancel();
+                throw e;
+            }
+        }
+    }
+
+    // Feeds the outcome of a failed attempt to the limiter and the circuit breaker
+    private void record(long ticket, IOException e) {
+        if (isCancellation(e)) {
+            limiter.release(ticket, AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+            breaker.onCancel();
+            return;
+        }
+        int code = e instanceof LLMHttpException ? ((LLMHttpException) e).code() : -1;
+        boolean overloaded = code == 429 || code == 503 || e instanceof SocketTimeoutException;
+        limiter.release(ticket, overloaded ? AdaptiveConcurrencyLimiter.Outcome.DROPPED
+                : AdaptiveConcurrencyLimiter.Outcome.IGNORED);
+        if (code == 429) {
+            breaker.onCancel();     // throttled, but alive
+        } else if (code >= 400 && code < 500) {
+            breaker.onSuccess();    // our request was wrong; the backend answered fine
+        } else {
+            breaker.onFailure();
+        }
+    }
+
+    static boolean isRetryable(IOException e) {
+        if (e instanceof LLMHttpException) {
+            int code = ((LLMHttpException) e).code();
+            return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+        }
+        return e instanceof ConnectException;
+    }
+
+    private static boolean isCancellation(IOException e) {
+        // SocketTimeoutException is an InterruptedIOException too, but it is the backend being slow
+        return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException);
+    }
+
+    /**
+     * Backoff before attempt {@code n + 1}: exponential with equal jitter, so waiting clients
+     * spread out instead of retrying in lockstep, and at least the server's Retry-After.
+     * Returns -1 if the server asked for a longer pause than we are willing to wait.
+     */
+    static long delayMillis(int n, IOException e) {
+        long exponential = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(n - 1, 20));
+        long delay = exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+        long retryAfter = e instanceof LLMHttpException ? ((LLMHttpException) e).retryAfterMillis() : -1;
+        if (retryAfter > MAX_RETRY_AFTER_MILLIS) return -1;
+        return Math.max(delay, retryAfter);
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during LLM retry backoff");
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.yourplugin.sparklineageplugin.ui.LLMSettingsDialog;
+
+public class ShowLLMSettingsAction extends AnAction {
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        if (new LLMSettingsDialog().showAndGet()) {
+            LLMClient.reloadBackend();
+        }
+    }
+}
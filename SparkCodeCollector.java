@@ -1,31 +1,348 @@
 package com.yourplugin.sparklineageplugin;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SparkCodeCollector {
+
+    private static final Logger LOG = Logger.getInstance(SparkCodeCollector.class);
+
+    private static final Key<MethodFragment> FRAGMENT_KEY = Key.create("spark.lineage.method.fragment");
+
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    public static final int DEFAULT_MAX_CHARS = 200_000;
+
+    private final int maxDepth;
+    private final int maxChars;
+    private final boolean projectScopeOnly;
+    private final boolean compactReferences;
+    private final boolean dropLocals;
+
+    private static final ExecutorService PREFETCH_EXECUTOR = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+            "SparkLineageCollector", Runtime.getRuntime().availableProcessors());
+
+    private final AtomicInteger resolvedCount = new AtomicInteger();
+    private final AtomicInteger reusedCount = new AtomicInteger();
+    private final List<String> truncated = new ArrayList<>();
+
+    private int referenceOccurrences;
+    private int referenceLinesEmitted;
+    private int referenceCharsSaved;
+
+    public SparkCodeCollector() {
+        this(DEFAULT_MAX_DEPTH, DEFAULT_MAX_CHARS, true, true, false);
+    }
+
+    public SparkCodeCollector(int maxDepth, int maxChars, boolean projectScopeOnly) {
+        this(maxDepth, maxChars, projectScopeOnly, true, false);
+    }
+
+    /**
+     * @param maxDepth         how many call levels below the selected method to follow
+     * @param maxChars         total character budget for the collected context
+     * @param projectScopeOnly  skip callees outside project sources (JDK, Spark, Scala libraries)
+     * @param compactReferences emit each referenced declaration once per method and each field once
+     *                          per class instead of one "// Reference:" line per use
+     * @param dropLocals        in compact mode, leave out locals and parameters; their declarations
+     *                          are already part of the method text
+     */
+    public SparkCodeCollector(int maxDepth, int maxChars, boolean projectScopeOnly,
+                              boolean compactReferences, boolean dropLocals) {
+        this.maxDepth = maxDepth;
+        this.maxChars = maxChars;
+        this.projectScopeOnly = projectScopeOnly;
+        this.compactReferences = compactReferences;
+        this.dropLocals = dropLocals;
+    }
+
     public String collectFullMethodContext(PsiMethod method) {
+        long start = System.nanoTime();
         StringBuilder fullCode = new StringBuilder();
         Set<PsiMethod> visited = new HashSet<>();
+        truncated.clear();
+        referenceOccurrences = 0;
+        referenceLinesEmitted = 0;
+        referenceCharsSaved = 0;
         collect(method, visited, fullCode);
+        if (!truncated.isEmpty()) {
+            fullCode.append("// Context truncated (").append(truncated.size()).append(" methods left out):\n");
+            for (String reason : truncated) {
+                fullCode.append("//   ").append(reason).append("\n");
+            }
+        }
+        LOG.debug("collected " + visited.size() + " methods in " + (System.nanoTime() - start) / 1_000_000
+                + " ms (resolved=" + resolvedCount + ", reused=" + reusedCount + ", truncated=" + truncated.size() + ")");
+        LOG.debug("references: " + referenceOccurrences + " uses -> " + referenceLinesEmitted
+                + " lines, " + referenceCharsSaved + " chars saved by compact format");
         return fullCode.toString();
     }
 
-    private void collect(PsiMethod method, Set<PsiMethod> visited, StringBuilder fullCode) {
-        if (method == null || visited.contains(method)) return;
-        visited.add(method);
-        fullCode.append("// Method: ").append(method.getName()).append("\n");
-        fullCode.append(method.getText()).append("\n\n");
+    /**
+     * Parallel variant of {@link #collectFullMethodContext(PsiMethod)}. Callee fragments are resolved
+     * level by level, each method in its own non-blocking read action spread over all cores, and the
+     * final context is then assembled by the usual sequential walk from those cached fragments,
+     * so the prompt text is identical to the sequential mode.
+     * Must be called outside a read action: every read action here, including the final assembly,
+     * is non-blocking and restarts after a pending write action instead of holding it up.
+     * Cancelling {@code indicator} or closing the project stops the workers.
+     */
+    public String collectFullMethodContextParallel(SmartPsiElementPointer<PsiMethod> pointer,
+                                                   ProgressIndicator indicator) {
+        long start = System.nanoTime();
+        Project project = pointer.getProject();
+        List<PsiMethod> frontier = ReadAction.nonBlocking(() -> {
+            PsiMethod root = pointer.getElement();
+            return root == null ? Collections.<PsiMethod>emptyList() : Collections.singletonList(root);
+        }).wrapProgress(indicator).expireWith(project).executeSynchronously();
+        Set<PsiMethod> seen = new HashSet<>(frontier);
+        int prefetched = 0;
+
+        for (int depth = 0; depth <= maxDepth && !frontier.isEmpty(); depth++) {
+            List<Future<List<PsiMethod>>> pending = new ArrayList<>(frontier.size());
+            for (PsiMethod method : frontier) {
+                pending.add(ReadAction.nonBlocking(() -> prefetch(method))
+                        .wrapProgress(indicator)
+                        .expireWith(project)
+                        .submit(PREFETCH_EXECUTOR));
+            }
+            prefetched += frontier.size();
+
+            // merge in submission order so the next level is the same no matter which worker finished first
+            List<PsiMethod> next = new ArrayList<>();
+            for (Future<List<PsiMethod>> future : pending) {
+                for (PsiMethod callee : await(future, indicator)) {
+                    if (seen.add(callee)) {
+                        next.add(callee);
+                    }
+                }
+            }
+            frontier = next;
+        }
+        long prefetchMs = (System.nanoTime() - start) / 1_000_000;
+        LOG.debug("prefetched " + prefetched + " fragments on " + Runtime.getRuntime().availableProcessors()
+                + " cores in " + prefetchMs + " ms");
+
+        // every fragment is cached by now, so a restart after a write action only repeats the cheap walk
+        return ReadAction.nonBlocking(() -> {
+            PsiMethod root = pointer.getElement();
+            return root == null ? null : collectFullMethodContext(root);
+        }).wrapProgress(indicator).expireWith(project).executeSynchronously();
+    }
+
+    private List<PsiMethod> prefetch(PsiMethod method) {
+        if (!method.isValid()) return Collections.emptyList();
+        List<PsiMethod> callees = new ArrayList<>();
+        for (Object item : fragmentOf(method).items) {
+            if (item instanceof SmartPsiElementPointer) {
+                PsiMethod callee = calleeOf(item);
+                if (callee != null && (!projectScopeOnly || isInProject(callee))) {
+                    callees.add(callee);
+                }
+            }
+        }
+        return callees;
+    }
+
+    private static List<PsiMethod> await(Future<List<PsiMethod>> future, ProgressIndicator indicator) {
+        try {
+            return ProgressIndicatorUtils.awaitWithCheckCanceled(future, indicator);
+        } catch (ProcessCanceledException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // a failed prefetch only costs a cache miss in the sequential assembly
+            LOG.warn("fragment prefetch failed : " + (e.getCause() != null ? e.getCause() : e));
+            return Collections.emptyList();
+        }
+    }
+
+    public List<String> getTruncated() {
+        return Collections.unmodifiableList(truncated);
+    }
+
+    /**
+     * Depth-first walk over the call graph using an explicit stack instead of recursion, so deep
+     * call chains cannot overflow the thread stack. The emitted order matches the old recursive walk:
+     * a callee's block appears right where the call was found in its caller.
+     * A callee only counts as visited once it is entered: one skipped for depth or budget on a long
+     * path is still emitted when a shorter path reaches it later, and only reported as left out if
+     * no path did.
+     */
+    private void collect(PsiMethod root, Set<PsiMethod> visited, StringBuilder fullCode) {
+        if (root == null) return;
+        Deque<Frame> stack = new ArrayDeque<>();
+        Set<String> emittedFields = new HashSet<>();
+        Map<PsiMethod, String> skipped = new LinkedHashMap<>();
+        visited.add(root);
+        stack.push(enter(root, 0, fullCode));
+
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            if (frame.next >= frame.fragment.items.size()) {
+                stack.pop();
+                continue;
+            }
+            Object item = frame.fragment.items.get(frame.next++);
+            if (item instanceof Reference) {
+                appendReference((Reference) item, frame, emittedFields, fullCode);
+                continue;
+            }
+            PsiMethod callee = calleeOf(item);
+            if (callee == null || visited.contains(callee)) continue;
 
+            String reason = skipReason(callee, frame.depth + 1, fullCode.length());
+            if (reason != null) {
+                skipped.putIfAbsent(callee, describe(callee) + " - " + reason);
+                continue;
+            }
+            visited.add(callee);
+            skipped.remove(callee);
+            stack.push(enter(callee, frame.depth + 1, fullCode));
+        }
+        truncated.addAll(skipped.values());
+    }
+
+    private Frame enter(PsiMethod method, int depth, StringBuilder fullCode) {
+        MethodFragment fragment = fragmentOf(method);
+        fullCode.append("// Method: ").append(fragment.name).append("\n");
+        fullCode.append(fragment.text).append("\n\n");
+        return new Frame(fragment, depth);
+    }
+
+    private void appendReference(Reference reference, Frame frame, Set<String> emittedFields, StringBuilder fullCode) {
+        referenceOccurrences++;
+        String verbose = reference.verboseLine();
+        if (!compactReferences) {
+            fullCode.append(verbose);
+            referenceLinesEmitted++;
+            return;
+        }
+        String line = null;
+        if (reference.fieldKey != null) {
+            // shared fields are printed once for the whole context, under their owning class
+            if (emittedFields.add(reference.fieldKey)) {
+                line = "// Field " + reference.fieldKey + " -> " + reference.declaration + "\n";
+            }
+        } else if (!dropLocals && frame.emittedTargets.add(reference.targetOffset)) {
+            line = "// Reference: " + reference.expression + " -> " + reference.declaration + "\n";
+        }
+        if (line != null) {
+            fullCode.append(line);
+            referenceLinesEmitted++;
+            referenceCharsSaved += verbose.length() - line.length();
+        } else {
+            referenceCharsSaved += verbose.length();
+        }
+    }
+
+    private String skipReason(PsiMethod callee, int depth, int currentChars) {
+        if (projectScopeOnly && !isInProject(callee)) {
+            return "outside project scope";
+        }
+        if (depth > maxDepth) {
+            return "max depth " + maxDepth + " reached";
+        }
+        // text length is cheap for source methods and avoids building the fragment just to drop it
+        if (currentChars + callee.getTextLength() > maxChars) {
+            return "character budget " + maxChars + " exhausted";
+        }
+        return null;
+    }
+
+    private static boolean isInProject(PsiMethod method) {
+        if (method instanceof PsiCompiledElement) return false;
+        PsiFile file = method.getContainingFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        return virtualFile != null && GlobalSearchScope.projectScope(method.getProject()).contains(virtualFile);
+    }
+
+    private static String describe(PsiMethod method) {
+        PsiClass owner = method.getContainingClass();
+        return (owner != null ? owner.getName() + "." : "") + method.getName();
+    }
+
+    private static class Frame {
+        final MethodFragment fragment;
+        final int depth;
+        final Set<Integer> emittedTargets = new HashSet<>();
+        int next;
+
+        Frame(MethodFragment fragment, int depth) {
+            this.fragment = fragment;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Returns the method's collected fragment, re-walking its PSI only when one of the files it was
+     * read from changed since: the method's own file, or a file declaring a field or constant it
+     * references. The callees it lists are smart pointers and are re-resolved on use.
+     */
+    MethodFragment fragmentOf(PsiMethod method) {
+        MethodFragment cached = method.getUserData(FRAGMENT_KEY);
+        if (cached != null && isCurrent(cached, PsiManager.getInstance(method.getProject()))) {
+            reusedCount.incrementAndGet();
+            return cached;
+        }
+        resolvedCount.incrementAndGet();
+        MethodFragment fragment = resolveFragment(method);
+        method.putUserData(FRAGMENT_KEY, fragment);
+        return fragment;
+    }
+
+    private static boolean isCurrent(MethodFragment fragment, PsiManager psiManager) {
+        if (fragment.fileStamps == null) return false;
+        for (Map.Entry<VirtualFile, Long> entry : fragment.fileStamps.entrySet()) {
+            PsiFile file = entry.getKey().isValid() ? psiManager.findFile(entry.getKey()) : null;
+            if (file == null || file.getModificationStamp() != entry.getValue()) return false;
+        }
+        return true;
+    }
+
+    // Adds the file holding {@code element} and its current stamp; false if it has no file to track
+    private static boolean track(PsiElement element, Map<VirtualFile, Long> fileStamps) {
+        PsiFile file = element.getContainingFile();
+        VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+        if (virtualFile == null) return false;
+        fileStamps.putIfAbsent(virtualFile, file.getModificationStamp());
+        return true;
+    }
+
+    // The fragment outlives this collection run, so callees are kept as pointers rather than PSI
+    private static MethodFragment resolveFragment(PsiMethod method) {
+        Map<VirtualFile, Long> fileStamps = new HashMap<>();
+        // without a file to watch (e.g. light PSI) the fragment is never reused
+        boolean trackable = track(method, fileStamps);
+        List<Object> items = new ArrayList<>();
         method.accept(new JavaRecursiveElementVisitor() {
             @Override
             public void visitMethodCallExpression(PsiMethodCallExpression expression) {
                 super.visitMethodCallExpression(expression);
                 PsiMethod resolved = expression.resolveMethod();
                 if (resolved != null) {
-                    collect(resolved, visited, fullCode);
+                    items.add(SmartPointerManager.createPointer(resolved));
                 }
             }
 
@@ -34,10 +351,65 @@ public class SparkCodeCollector {
                 super.visitReferenceExpression(expression);
                 PsiElement resolved = expression.resolve();
                 if (resolved instanceof PsiField || resolved instanceof PsiVariable) {
-                    fullCode.append("// Reference: ").append(expression.getText()).append(" -> ")
-                            .append(resolved.getText()).append("\n");
+                    items.add(new Reference(expression.getText(), resolved));
+                    // library declarations (compiled, or with no file) don't change under us
+                    if (resolved instanceof PsiField && !(resolved instanceof PsiCompiledElement)) {
+                        track(resolved, fileStamps);
+                    }
                 }
             }
         });
+        return new MethodFragment(method.getName(), method.getText(), trackable ? fileStamps : null, items);
+    }
+
+    // The callee a fragment item points to, or null if it is gone
+    @SuppressWarnings("unchecked")
+    private static PsiMethod calleeOf(Object item) {
+        PsiMethod callee = ((SmartPsiElementPointer<PsiMethod>) item).getElement();
+        return callee != null && callee.isValid() ? callee : null;
+    }
+
+    /**
+     * One method's share of the context: its text plus, in visit order, the field/variable
+     * references and the resolved callees (as smart pointers) found while walking it.
+     */
+    static class MethodFragment {
+        final String name;
+        final String text;
+        // every file the text and reference declarations were read from, with its PSI modification stamp
+        final Map<VirtualFile, Long> fileStamps;
+        final List<Object> items;
+
+        MethodFragment(String name, String text, Map<VirtualFile, Long> fileStamps, List<Object> items) {
+            this.name = name;
+            this.text = text;
+            this.fileStamps = fileStamps;
+            this.items = Collections.unmodifiableList(items);
+        }
+    }
+
+    static class Reference {
+        final String expression;
+        // where the local or parameter is declared; identifies it within the method without holding its PSI
+        final int targetOffset;
+        final String declaration;
+        // "Owner.name" for fields, null for locals and parameters
+        final String fieldKey;
+
+        Reference(String expression, PsiElement target) {
+            this.expression = expression;
+            this.targetOffset = target.getTextOffset();
+            this.declaration = target.getText();
+            if (target instanceof PsiField) {
+                PsiClass owner = ((PsiField) target).getContainingClass();
+                this.fieldKey = (owner != null ? owner.getQualifiedName() : "?") + "." + ((PsiField) target).getName();
+            } else {
+                this.fieldKey = null;
+            }
+        }
+
+        String verboseLine() {
+            return "// Reference: " + expression + " -> " + declaration + "\n";
+        }
     }
 }
@@ -0,0 +1,724 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.psi.*;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiUtil;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Deterministic, LLM-free lineage over the PSI of a Spark job. Follows Dataset/DataFrame call
+ * chains (read/table/sql, select, withColumn, join, groupBy/agg, union, write/saveAsTable) through
+ * local variables, fields and project helper methods, and builds a dataset graph with column
+ * mappings. Runs in milliseconds, so it is shown before the LLM answer arrives and is also handed
+ * to the LLM as a skeleton to annotate. Must be called inside a read action.
+ */
+public class StaticLineageAnalyzer {
+
+    private static final Logger LOG = Logger.getInstance(StaticLineageAnalyzer.class);
+
+    private static final Set<String> READ_FORMATS = new HashSet<>(Arrays.asList(
+            "load", "csv", "parquet", "json", "orc", "text", "textFile", "table", "jdbc", "avro", "delta"));
+    private static final Set<String> WRITE_SINKS = new HashSet<>(Arrays.asList(
+            "saveAsTable", "insertInto", "save", "csv", "parquet", "json", "orc", "text", "jdbc", "avro", "delta",
+            "start", "toTable"));
+    // operations that do not change the data's identity for lineage purposes
+    private static final Set<String> PASS_THROUGH = new HashSet<>(Arrays.asList(
+            "cache", "persist", "unpersist", "alias", "as", "repartition", "coalesce", "orderBy", "sort",
+            "sortWithinPartitions", "limit", "checkpoint", "localCheckpoint", "hint", "toDF"));
+    private static final Set<String> ROW_FILTERS = new HashSet<>(Arrays.asList(
+            "filter", "where", "distinct", "dropDuplicates", "sample", "except", "exceptAll", "intersect"));
+    private static final Set<String> UNIONS = new HashSet<>(Arrays.asList("union", "unionAll", "unionByName"));
+    private static final Set<String> GROUPINGS = new HashSet<>(Arrays.asList("groupBy", "rollup", "cube"));
+    private static final Set<String> COLUMN_FUNCTIONS = new HashSet<>(Arrays.asList("col", "column", "apply"));
+    private static final Pattern SQL_TABLE = Pattern.compile("(?i)\\b(?:from|join)\\s+([\\w.]+)");
+    private static final Pattern SELECT_EXPR_ALIAS = Pattern.compile("(?i)^\\s*(.+?)\\s+as\\s+(\\w+)\\s*$");
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_]\\w*");
+
+    private final int maxDepth;
+
+    private final List<DatasetNode> nodes = new ArrayList<>();
+    private final List<Edge> edges = new ArrayList<>();
+    // insertion-ordered set: mapColumn/ensureColumn add the same mapping many times
+    private final Set<ColumnEdge> columnEdges = new LinkedHashSet<>();
+    private final Map<String, DatasetNode> namedNodes = new HashMap<>();
+    private final Map<PsiVariable, DatasetNode> bindings = new HashMap<>();
+    // results for the method being walked; invoke() starts a fresh map for each call site
+    private Map<PsiExpression, DatasetNode> evaluated = new HashMap<>();
+    private final Deque<PsiMethod> callStack = new ArrayDeque<>();
+
+    public StaticLineageAnalyzer() {
+        this(6);
+    }
+
+    public StaticLineageAnalyzer(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    public Result analyze(PsiMethod method) {
+        long start = System.nanoTime();
+        walk(method);
+        long micros = (System.nanoTime() - start) / 1_000;
+        LOG.debug("static lineage : " + nodes.size() + " datasets, " + edges.size() + " edges, "
+                + columnEdges.size() + " column mappings in " + micros + " us");
+        return new Result(nodes, edges, columnEdges);
+    }
+
+    private void walk(PsiMethod method) {
+        PsiCodeBlock body = method.getBody();
+        if (body == null || callStack.contains(method) || callStack.size() > maxDepth) return;
+        callStack.push(method);
+        body.accept(new JavaRecursiveElementVisitor() {
+            @Override
+            public void visitLocalVariable(PsiLocalVariable variable) {
+                bind(variable, variable.getInitializer());
+                super.visitLocalVariable(variable);
+            }
+
+            @Override
+            public void visitAssignmentExpression(PsiAssignmentExpression expression) {
+                PsiExpression lhs = PsiUtil.skipParenthesizedExprDown(expression.getLExpression());
+                if (lhs instanceof PsiReferenceExpression) {
+                    PsiElement target = ((PsiReferenceExpression) lhs).resolve();
+                    if (target instanceof PsiVariable) {
+                        bind((PsiVariable) target, expression.getRExpression());
+                    }
+                }
+                super.visitAssignmentExpression(expression);
+            }
+
+            @Override
+            public void visitMethodCallExpression(PsiMethodCallExpression call) {
+                if (evaluated.containsKey(call) || recordSink(call)) return;
+                // helpers like writeOutput(df) carry lineage even when their result is unused
+                PsiMethod target = projectMethod(call);
+                if (target != null) {
+                    if (isDataset(call.getType())) {
+                        evaluate(call);
+                    } else {
+                        invoke(target, call);
+                    }
+                    return;
+                }
+                super.visitMethodCallExpression(call);
+            }
+        });
+        callStack.pop();
+    }
+
+    private void bind(PsiVariable variable, PsiExpression initializer) {
+        if (initializer == null) return;
+        DatasetNode node = evaluate(initializer);
+        if (node != null) {
+            bindings.put(variable, node);
+            if (node.variable == null) node.variable = variable.getName();
+        }
+    }
+
+    // ---- expression evaluation -------------------------------------------------------------
+
+    private DatasetNode evaluate(PsiExpression expression) {
+        expression = PsiUtil.skipParenthesizedExprDown(expression);
+        if (expression == null) return null;
+        if (evaluated.containsKey(expression)) return evaluated.get(expression);
+        DatasetNode result = null;
+        if (expression instanceof PsiReferenceExpression) {
+            result = evaluateReference((PsiReferenceExpression) expression);
+        } else if (expression instanceof PsiMethodCallExpression) {
+            result = evaluateCall((PsiMethodCallExpression) expression);
+        } else if (expression instanceof PsiConditionalExpression) {
+            result = evaluate(((PsiConditionalExpression) expression).getThenExpression());
+        }
+        evaluated.put(expression, result);
+        return result;
+    }
+
+    private DatasetNode evaluateReference(PsiReferenceExpression reference) {
+        PsiElement target = reference.resolve();
+        if (!(target instanceof PsiVariable)) return null;
+        PsiVariable variable = (PsiVariable) target;
+        DatasetNode bound = bindings.get(variable);
+        if (bound != null) return bound;
+        if (variable instanceof PsiField && ((PsiField) variable).getInitializer() != null) {
+            bind(variable, ((PsiField) variable).getInitializer());
+            if (bindings.containsKey(variable)) return bindings.get(variable);
+        }
+        if (isDataset(variable.getType())) {
+            // parameter or field we can't see the origin of
+            DatasetNode input = named("input:" + variable.getName(), NodeKind.INPUT, variable.getName());
+            bindings.put(variable, input);
+            return input;
+        }
+        return null;
+    }
+
+    private DatasetNode evaluateCall(PsiMethodCallExpression call) {
+        String name = call.getMethodExpression().getReferenceName();
+        PsiExpression qualifier = call.getMethodExpression().getQualifierExpression();
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        if (name == null) return null;
+
+        if (isReaderChain(qualifier) && READ_FORMATS.contains(name)) {
+            return source(name, args);
+        }
+        if ("table".equals(name) && isSession(qualifier)) {
+            return source(name, args);
+        }
+        if ("sql".equals(name) && isSession(qualifier)) {
+            return sqlSource(args);
+        }
+        if ("agg".equals(name) && qualifier instanceof PsiMethodCallExpression
+                && GROUPINGS.contains(((PsiMethodCallExpression) qualifier).getMethodExpression().getReferenceName())) {
+            return aggregate((PsiMethodCallExpression) qualifier, args);
+        }
+
+        DatasetNode parent = qualifier != null ? evaluate(qualifier) : null;
+        if (parent != null) {
+            DatasetNode derived = transform(parent, name, args, call);
+            if (derived != null) return derived;
+        }
+
+        PsiMethod target = projectMethod(call);
+        if (target != null && isDataset(call.getType())) {
+            return invoke(target, call);
+        }
+        if (parent != null && isDataset(call.getType())) {
+            return derive(name, parent, true);
+        }
+        return null;
+    }
+
+    private DatasetNode transform(DatasetNode parent, String name, PsiExpression[] args, PsiMethodCallExpression call) {
+        if (PASS_THROUGH.contains(name)) {
+            return parent;
+        }
+        if (ROW_FILTERS.contains(name)) {
+            DatasetNode node = derive(name + argSummary(args), parent, true);
+            node.columns.addAll(parent.columns);
+            for (String column : parent.columns) mapColumn(parent, column, node, column);
+            return node;
+        }
+        switch (name) {
+            case "select":
+            case "selectExpr": {
+                DatasetNode node = derive("select", parent, false);
+                for (PsiExpression arg : args) {
+                    for (ColumnExpr column : columnExprs(arg, "selectExpr".equals(name))) {
+                        if (column.output == null) continue;
+                        if ("*".equals(column.output)) {
+                            for (String c : parent.columns) mapColumn(parent, c, node, c);
+                            continue;
+                        }
+                        node.columns.add(column.output);
+                        for (String source : column.sources) mapColumn(parent, source, node, column.output);
+                    }
+                }
+                return node;
+            }
+            case "withColumn": {
+                if (args.length < 2) return null;
+                String newColumn = literal(args[0]);
+                DatasetNode node = derive("withColumn(" + newColumn + ")", parent, true);
+                for (String column : parent.columns) {
+                    if (!column.equals(newColumn)) mapColumn(parent, column, node, column);
+                }
+                if (newColumn != null) {
+                    node.columns.add(newColumn);
+                    for (ColumnExpr column : columnExprs(args[1], false)) {
+                        for (String source : column.sources) mapColumn(parent, source, node, newColumn);
+                    }
+                }
+                return node;
+            }
+            case "withColumnRenamed": {
+                if (args.length < 2) return null;
+                String from = literal(args[0]);
+                String to = literal(args[1]);
+                DatasetNode node = derive("rename " + from + " -> " + to, parent, true);
+                for (String column : parent.columns) {
+                    mapColumn(parent, column, node, column.equals(from) ? to : column);
+                }
+                if (from != null && to != null && !parent.columns.contains(from)) mapColumn(parent, from, node, to);
+                node.aliases.put(from, to);
+                return node;
+            }
+            case "drop": {
+                DatasetNode node = derive("drop" + argSummary(args), parent, true);
+                Set<String> dropped = new HashSet<>();
+                for (PsiExpression arg : args) {
+                    String literal = literal(arg);
+                    if (literal != null) dropped.add(literal);
+                }
+                node.dropped.addAll(dropped);
+                for (String column : parent.columns) {
+                    if (!dropped.contains(column)) mapColumn(parent, column, node, column);
+                }
+                return node;
+            }
+            case "join":
+            case "crossJoin":
+            case "joinWith": {
+                DatasetNode other = args.length > 0 ? evaluate(args[0]) : null;
+                String type = args.length > 2 ? literal(args[2]) : null;
+                String keys = args.length > 1 ? joinKeys(args[1]) : "";
+                DatasetNode node = derive((type != null ? type + " " : "") + name + keys, parent, false);
+                node.parents.add(parent);
+                for (String column : parent.columns) mapColumn(parent, column, node, column);
+                if (other != null) {
+                    addEdge(other, node, node.operation);
+                    node.parents.add(other);
+                    for (String column : other.columns) mapColumn(other, column, node, column);
+                }
+                return node;
+            }
+            default:
+                if (UNIONS.contains(name)) {
+                    DatasetNode node = derive(name, parent, false);
+                    node.parents.add(parent);
+                    for (String column : parent.columns) mapColumn(parent, column, node, column);
+                    DatasetNode other = args.length > 0 ? evaluate(args[0]) : null;
+                    if (other != null) {
+                        addEdge(other, node, name);
+                        node.parents.add(other);
+                        for (String column : other.columns) mapColumn(other, column, node, column);
+                    }
+                    return node;
+                }
+                return null;
+        }
+    }
+
+    private DatasetNode aggregate(PsiMethodCallExpression grouping, PsiExpression[] aggArgs) {
+        DatasetNode parent = evaluate(grouping.getMethodExpression().getQualifierExpression());
+        evaluated.put(grouping, parent);
+        if (parent == null) return null;
+        List<String> keys = new ArrayList<>();
+        for (PsiExpression key : grouping.getArgumentList().getExpressions()) {
+            for (ColumnExpr column : columnExprs(key, false)) {
+                if (column.output != null) keys.add(column.output);
+            }
+        }
+        DatasetNode node = derive("groupBy(" + String.join(", ", keys) + ").agg", parent, false);
+        for (String key : keys) {
+            node.columns.add(key);
+            mapColumn(parent, key, node, key);
+        }
+        for (PsiExpression arg : aggArgs) {
+            for (ColumnExpr column : columnExprs(arg, false)) {
+                String output = column.output != null ? column.output : column.text;
+                node.columns.add(output);
+                for (String source : column.sources) mapColumn(parent, source, node, output);
+            }
+        }
+        return node;
+    }
+
+    private DatasetNode source(String format, PsiExpression[] args) {
+        String location = args.length > 0 ? literal(args[args.length - 1]) : null;
+        if (location == null) location = args.length > 0 ? args[args.length - 1].getText() : format;
+        boolean table = "table".equals(format) || "jdbc".equals(format);
+        return named((table ? "table:" : "path:") + location, table ? NodeKind.TABLE : NodeKind.PATH, location);
+    }
+
+    private DatasetNode sqlSource(PsiExpression[] args) {
+        String query = args.length > 0 ? literal(args[0]) : null;
+        DatasetNode node = derive("sql", null, false);
+        node.kind = NodeKind.SQL;
+        if (query != null) {
+            Matcher matcher = SQL_TABLE.matcher(query);
+            while (matcher.find()) {
+                DatasetNode table = named("table:" + matcher.group(1), NodeKind.TABLE, matcher.group(1));
+                addEdge(table, node, "sql");
+                node.parents.add(table);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Whether {@code call} is the terminal call of a {@code ds.write()...saveAsTable(..)} style chain.
+     */
+    public static boolean isWriteSink(PsiMethodCallExpression call) {
+        String name = call.getMethodExpression().getReferenceName();
+        return name != null && WRITE_SINKS.contains(name)
+                && findInChain(call.getMethodExpression().getQualifierExpression(), "write", "writeStream") != null;
+    }
+
+    private boolean recordSink(PsiMethodCallExpression call) {
+        if (!isWriteSink(call)) return false;
+        String name = call.getMethodExpression().getReferenceName();
+        PsiMethodCallExpression writer = findInChain(call.getMethodExpression().getQualifierExpression(), "write", "writeStream");
+        DatasetNode data = evaluate(writer.getMethodExpression().getQualifierExpression());
+        evaluated.put(call, null);
+        if (data == null) return true;
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        String location = args.length > 0 ? literal(args[0]) : null;
+        if (location == null) location = args.length > 0 ? args[0].getText() : name;
+        boolean table = "saveAsTable".equals(name) || "insertInto".equals(name) || "toTable".equals(name);
+        DatasetNode sink = named((table ? "table:" : "path:") + location, table ? NodeKind.TABLE : NodeKind.PATH, location);
+        sink.sink = true;
+        addEdge(data, sink, name);
+        sink.parents.add(data);
+        for (String column : data.columns) mapColumn(data, column, sink, column);
+        return true;
+    }
+
+    // Interprocedural step: bind the callee's Dataset parameters to the argument datasets and walk it
+    private DatasetNode invoke(PsiMethod target, PsiMethodCallExpression call) {
+        if (callStack.contains(target) || callStack.size() > maxDepth) return null;
+        PsiParameter[] parameters = target.getParameterList().getParameters();
+        PsiExpression[] args = call.getArgumentList().getExpressions();
+        for (int i = 0; i < Math.min(parameters.length, args.length); i++) {
+            DatasetNode arg = evaluate(args[i]);
+            if (arg != null) bindings.put(parameters[i], arg);
+        }
+        // the callee's expressions depend on this call's arguments, so results cached for an
+        // earlier call site (or a direct walk of the callee) must not leak into this one
+        Map<PsiExpression, DatasetNode> callerEvaluated = evaluated;
+        evaluated = new HashMap<>();
+        try {
+            walk(target);
+            DatasetNode result = null;
+            for (PsiReturnStatement ret : PsiTreeUtil.findChildrenOfType(target.getBody(), PsiReturnStatement.class)) {
+                DatasetNode value = evaluate(ret.getReturnValue());
+                if (value != null) result = value;
+            }
+            return result;
+        } finally {
+            evaluated = callerEvaluated;
+        }
+    }
+
+    // ---- graph building --------------------------------------------------------------------
+
+    private DatasetNode named(String key, NodeKind kind, String label) {
+        DatasetNode node = namedNodes.get(key);
+        if (node == null) {
+            node = new DatasetNode(nodes.size(), kind, label);
+            nodes.add(node);
+            namedNodes.put(key, node);
+        }
+        return node;
+    }
+
+    private DatasetNode derive(String operation, DatasetNode parent, boolean passThrough) {
+        DatasetNode node = new DatasetNode(nodes.size(), NodeKind.DERIVED, operation);
+        node.operation = operation;
+        nodes.add(node);
+        if (parent != null) {
+            addEdge(parent, node, operation);
+            if (passThrough) node.passThroughParent = parent;
+        }
+        return node;
+    }
+
+    private void addEdge(DatasetNode from, DatasetNode to, String operation) {
+        edges.add(new Edge(from, to, operation));
+    }
+
+    /**
+     * Records from.column -> to.target. Source tables have no known schema, so a column used
+     * downstream is added to the parent (and, through pass-through steps, to its ancestors).
+     */
+    private void mapColumn(DatasetNode from, String column, DatasetNode to, String target) {
+        if (column == null || target == null) return;
+        ensureColumn(from, column);
+        to.columns.add(target);
+        columnEdges.add(new ColumnEdge(from, column, to, target));
+    }
+
+    private void ensureColumn(DatasetNode node, String column) {
+        if (node.columns.contains(column) || node.dropped.contains(column)) return;
+        node.columns.add(column);
+        DatasetNode parent = node.passThroughParent;
+        if (parent != null) {
+            String original = column;
+            for (Map.Entry<String, String> alias : node.aliases.entrySet()) {
+                if (column.equals(alias.getValue())) original = alias.getKey();
+            }
+            ensureColumn(parent, original);
+            columnEdges.add(new ColumnEdge(parent, original, node, column));
+        }
+    }
+
+    // ---- PSI helpers -----------------------------------------------------------------------
+
+    private static boolean isDataset(PsiType type) {
+        if (type == null) return false;
+        String text = type.getCanonicalText();
+        return text.startsWith("org.apache.spark.sql.Dataset") || text.startsWith("org.apache.spark.sql.DataFrame");
+    }
+
+    private static boolean isSession(PsiExpression expression) {
+        if (expression == null) return false;
+        PsiType type = expression.getType();
+        if (type != null && type.getCanonicalText().startsWith("org.apache.spark.sql.SparkSession")) return true;
+        // unresolved Spark classpath: fall back to the usual naming
+        String text = expression.getText();
+        return text.equals("spark") || text.endsWith(".spark") || text.endsWith("sparkSession")
+                || text.endsWith("getOrCreate()");
+    }
+
+    private static boolean isReaderChain(PsiExpression expression) {
+        return findInChain(expression, "read", "readStream") != null;
+    }
+
+    private static PsiMethodCallExpression findInChain(PsiExpression expression, String... names) {
+        PsiExpression current = PsiUtil.skipParenthesizedExprDown(expression);
+        while (current instanceof PsiMethodCallExpression) {
+            PsiMethodCallExpression call = (PsiMethodCallExpression) current;
+            String name = call.getMethodExpression().getReferenceName();
+            for (String candidate : names) {
+                if (candidate.equals(name)) return call;
+            }
+            current = PsiUtil.skipParenthesizedExprDown(call.getMethodExpression().getQualifierExpression());
+        }
+        return null;
+    }
+
+    private static PsiMethod projectMethod(PsiMethodCallExpression call) {
+        PsiMethod target = call.resolveMethod();
+        if (target == null || target instanceof PsiCompiledElement || target.getBody() == null) return null;
+        PsiFile file = target.getContainingFile();
+        return file != null && file.getVirtualFile() != null
+                && GlobalSearchScope.projectScope(target.getProject()).contains(file.getVirtualFile()) ? target : null;
+    }
+
+    private static String literal(PsiExpression expression) {
+        expression = PsiUtil.skipParenthesizedExprDown(expression);
+        if (expression instanceof PsiLiteralExpression) {
+            Object value = ((PsiLiteralExpression) expression).getValue();
+            return value instanceof String ? (String) value : null;
+        }
+        if (expression instanceof PsiReferenceExpression) {
+            PsiElement target = ((PsiReferenceExpression) expression).resolve();
+            if (target instanceof PsiVariable && ((PsiVariable) target).hasModifierProperty(PsiModifier.FINAL)) {
+                return literal(((PsiVariable) target).getInitializer());
+            }
+        }
+        return null;
+    }
+
+    private static String argSummary(PsiExpression[] args) {
+        if (args.length == 0) return "";
+        String text = args[0].getText();
+        return "(" + (text.length() > 40 ? text.substring(0, 37) + "..." : text) + ")";
+    }
+
+    private String joinKeys(PsiExpression condition) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (ColumnExpr column : columnExprs(condition, false)) {
+            keys.addAll(column.sources);
+        }
+        return keys.isEmpty() ? "" : " on " + String.join(", ", keys);
+    }
+
+    /**
+     * Reads column expressions: "a", col("a"), functions.col("a"), df.col("a"), col("a").as("b"),
+     * sum(col("x")).alias("total"), and for selectExpr plain "expr as alias" strings.
+     */
+    private List<ColumnExpr> columnExprs(PsiExpression expression, boolean sqlStrings) {
+        expression = PsiUtil.skipParenthesizedExprDown(expression);
+        List<ColumnExpr> result = new ArrayList<>();
+        if (expression == null) return result;
+
+        String literal = literal(expression);
+        if (literal != null) {
+            if (sqlStrings) {
+                Matcher alias = SELECT_EXPR_ALIAS.matcher(literal);
+                String output = alias.matches() ? alias.group(2) : literal.trim();
+                String body = alias.matches() ? alias.group(1) : literal;
+                Set<String> sources = new LinkedHashSet<>();
+                Matcher ids = IDENTIFIER.matcher(body);
+                while (ids.find()) sources.add(ids.group());
+                result.add(new ColumnExpr(output, sources, literal));
+            } else {
+                result.add(new ColumnExpr(literal, Collections.singleton(literal), literal));
+            }
+            return result;
+        }
+        if (expression instanceof PsiMethodCallExpression) {
+            PsiMethodCallExpression call = (PsiMethodCallExpression) expression;
+            String name = call.getMethodExpression().getReferenceName();
+            PsiExpression[] args = call.getArgumentList().getExpressions();
+            if (COLUMN_FUNCTIONS.contains(name) && args.length == 1 && literal(args[0]) != null) {
+                String column = literal(args[0]);
+                result.add(new ColumnExpr(column, Collections.singleton(column), expression.getText()));
+                return result;
+            }
+            if (("as".equals(name) || "alias".equals(name) || "name".equals(name)) && args.length == 1) {
+                Set<String> sources = sourcesOf(call.getMethodExpression().getQualifierExpression());
+                result.add(new ColumnExpr(literal(args[0]), sources, expression.getText()));
+                return result;
+            }
+            if (isArrayLike(name)) {
+                for (PsiExpression arg : args) result.addAll(columnExprs(arg, sqlStrings));
+                return result;
+            }
+        }
+        result.add(new ColumnExpr(null, sourcesOf(expression), expression.getText()));
+        return result;
+    }
+
+    private static boolean isArrayLike(String name) {
+        return "asList".equals(name) || "of".equals(name) || "seq".equals(name) || "toSeq".equals(name);
+    }
+
+    private Set<String> sourcesOf(PsiExpression expression) {
+        Set<String> sources = new LinkedHashSet<>();
+        if (expression == null) return sources;
+        expression.accept(new JavaRecursiveElementVisitor() {
+            @Override
+            public void visitMethodCallExpression(PsiMethodCallExpression call) {
+                super.visitMethodCallExpression(call);
+                PsiExpression[] args = call.getArgumentList().getExpressions();
+                if (COLUMN_FUNCTIONS.contains(call.getMethodExpression().getReferenceName()) && args.length == 1) {
+                    String column = literal(args[0]);
+                    if (column != null) sources.add(column);
+                }
+            }
+        });
+        String literal = literal(expression);
+        if (literal != null) sources.add(literal);
+        return sources;
+    }
+
+    // ---- model -----------------------------------------------------------------------------
+
+    public enum NodeKind { TABLE, PATH, SQL, INPUT, DERIVED }
+
+    public static class DatasetNode {
+        public final int id;
+        public NodeKind kind;
+        public final String label;
+        public String operation;
+        public String variable;
+        public boolean sink;
+        public final Set<String> columns = new LinkedHashSet<>();
+        final Set<String> dropped = new HashSet<>();
+        final Map<String, String> aliases = new HashMap<>();
+        final List<DatasetNode> parents = new ArrayList<>();
+        DatasetNode passThroughParent;
+
+        DatasetNode(int id, NodeKind kind, String label) {
+            this.id = id;
+            this.kind = kind;
+            this.label = label;
+        }
+
+        public String displayName() {
+            switch (kind) {
+                case TABLE: return (sink ? "sink table: " : "table: ") + label;
+                case PATH: return (sink ? "sink path: " : "path: ") + label;
+                case INPUT: return "input: " + label;
+                default: return variable != null ? variable + " = " + label : label;
+            }
+        }
+    }
+
+    public static class Edge {
+        public final DatasetNode from;
+        public final DatasetNode to;
+        public final String operation;
+
+        Edge(DatasetNode from, DatasetNode to, String operation) {
+            this.from = from;
+            this.to = to;
+            this.operation = operation;
+        }
+    }
+
+    public static class ColumnEdge {
+        public final DatasetNode from;
+        public final String fromColumn;
+        public final DatasetNode to;
+        public final String toColumn;
+
+        ColumnEdge(DatasetNode from, String fromColumn, DatasetNode to, String toColumn) {
+            this.from = from;
+            this.fromColumn = fromColumn;
+            this.to = to;
+            this.toColumn = toColumn;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ColumnEdge)) return false;
+            ColumnEdge other = (ColumnEdge) o;
+            return from == other.from && to == other.to
+                    && fromColumn.equals(other.fromColumn) && toColumn.equals(other.toColumn);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(from.id, fromColumn, to.id, toColumn);
+        }
+    }
+
+    private static class ColumnExpr {
+        final String output;
+        final Set<String> sources;
+        final String text;
+
+        ColumnExpr(String output, Set<String> sources, String text) {
+            this.output = output;
+            this.sources = sources;
+            this.text = text;
+        }
+    }
+
+    public static class Result {
+        public final List<DatasetNode> nodes;
+        public final List<Edge> edges;
+        public final List<ColumnEdge> columnEdges;
+
+        Result(List<DatasetNode> nodes, List<Edge> edges, Collection<ColumnEdge> columnEdges) {
+            this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+            this.edges = Collections.unmodifiableList(new ArrayList<>(edges));
+            this.columnEdges = Collections.unmodifiableList(new ArrayList<>(columnEdges));
+        }
+
+        public boolean isEmpty() {
+            return edges.isEmpty();
+        }
+
+        public String toMermaid() {
+            return toGraph().toMermaid();
+        }
+
+        public LineageGraph toGraph() {
+            LineageGraph graph = new LineageGraph();
+            int[] ids = new int[nodes.size()];
+            for (DatasetNode node : nodes) {
+                ids[node.id] = graph.dataset("ds" + node.id, node.displayName());
+                for (String column : node.columns) {
+                    graph.column(ids[node.id], column);
+                }
+            }
+            for (Edge edge : edges) {
+                graph.addEdge(ids[edge.from.id], ids[edge.to.id], edge.operation);
+            }
+            for (ColumnEdge edge : columnEdges) {
+                graph.addEdge(graph.column(ids[edge.from.id], edge.fromColumn),
+                        graph.column(ids[edge.to.id], edge.toColumn), null);
+            }
+            return graph;
+        }
+
+        public String toMarkdown() {
+            StringBuilder markdown = new StringBuilder("## Static Lineage (PSI analysis)\n\n```mermaid\n")
+                    .append(toMermaid()).append("\n```\n\n### Column mappings\n\n");
+            for (ColumnEdge edge : columnEdges) {
+                if (edge.from.kind == NodeKind.DERIVED && edge.to.kind == NodeKind.DERIVED
+                        && edge.fromColumn.equals(edge.toColumn)) continue;
+                markdown.append("- ").append(edge.from.displayName()).append(".").append(edge.fromColumn)
+                        .append(" -> ").append(edge.to.displayName()).append(".").append(edge.toColumn).append("\n");
+            }
+            return markdown.toString();
+        }
+    }
+}
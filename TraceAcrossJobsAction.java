@@ -0,0 +1,55 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Traces a table or column through every indexed Spark job, following it across jobs that
+ * share a Hive table or storage path. Needs lineage in the index, from "Run Lineage for
+ * Project" or individual lineage runs.
+ */
+public class TraceAcrossJobsAction extends AnAction {
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        Project project = e.getProject();
+        if (project == null) return;
+
+        String query = Messages.showInputDialog(project,
+                "Table or column to trace across jobs (e.g. sales.orders.customer_id):",
+                "Cross-Job Lineage", Messages.getQuestionIcon());
+        if (query == null || query.trim().isEmpty()) return;
+
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Tracing lineage across jobs", true) {
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                // lineage of deleted or renamed methods would otherwise stay in the merged graph
+                LineageIndex.getInstance(project).prune(project, indicator);
+                GlobalLineageStore store = GlobalLineageStore.getInstance(project);
+                String trace = store.trace(query);
+                int jobs = LineageIndex.getInstance(project).entries().size();
+                ApplicationManager.getApplication().invokeLater(() -> {
+                    if (trace == null) {
+                        Messages.showInfoMessage(project, "Nothing named \"" + query.trim() + "\" in the lineage of "
+                                + jobs + " indexed jobs.", "Cross-Job Lineage");
+                    } else {
+                        LineageResultPanelEnhanced.show(project, trace);
+                    }
+                }, project.getDisposed());
+            }
+        });
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null);
+    }
+}
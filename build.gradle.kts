@@ -29,7 +29,78 @@ intellij {
     plugins.set(listOf("java"))
 }
 
+// Bundles mermaid.js into the plugin jar so diagrams render without network access
+// (keep in sync with MermaidAssets.VERSION). The script and its license are checked in under
+// vendor/mermaid-<version>/ together with the SHA-256 of the script; the build never downloads
+// anything and fails if the script is missing or doesn't match the pinned checksum.
+// `./gradlew updateMermaid` fetches a new version once, to be reviewed and committed. Air-gapped hosts can still pass
+// -PmermaidJs=/path/to/mermaid.min.js, which is verified against the same checksum.
+val mermaidVersion = "10.6.1"
+val mermaidVendor = layout.projectDirectory.dir("vendor/mermaid-$mermaidVersion")
+val mermaidResources = layout.buildDirectory.dir("generated/mermaid")
+
+fun sha256(file: File): String =
+    java.security.MessageDigest.getInstance("SHA-256").digest(file.readBytes()).joinToString("") { "%02x".format(it) }
+
+val updateMermaid by tasks.registering {
+    description = "Downloads mermaid $mermaidVersion and its license into vendor/ and pins the script's SHA-256"
+    doLast {
+        val dir = mermaidVendor.asFile
+        dir.mkdirs()
+        val base = "https://cdn.jsdelivr.net/npm/mermaid@$mermaidVersion"
+        for ((path, name) in listOf("dist/mermaid.min.js" to "mermaid.min.js", "LICENSE" to "LICENSE")) {
+            uri("$base/$path").toURL().openStream().use { input ->
+                File(dir, name).outputStream().use { input.copyTo(it) }
+            }
+        }
+        File(dir, "mermaid.min.js.sha256").writeText(sha256(File(dir, "mermaid.min.js")) + "\n")
+    }
+}
+
+val bundleMermaid by tasks.registering {
+    val target = mermaidResources.map { it.dir("mermaid") }
+    val localCopy = providers.gradleProperty("mermaidJs")
+    inputs.property("mermaidJs", localCopy.orElse(""))
+    inputs.dir(mermaidVendor).optional()
+    outputs.dir(target)
+    doLast {
+        val vendor = mermaidVendor.asFile
+        val script = if (localCopy.isPresent) file(localCopy.get()) else File(vendor, "mermaid.min.js")
+        val out = target.get().asFile
+        out.deleteRecursively()
+        if (!script.isFile) {
+            throw GradleException("$script is missing; run ./gradlew updateMermaid and commit $vendor")
+        }
+        val pinned = File(vendor, "mermaid.min.js.sha256")
+        if (!pinned.isFile) throw GradleException("no pinned checksum at $pinned")
+        val actual = sha256(script)
+        if (actual != pinned.readText().trim()) {
+            throw GradleException("$script has SHA-256 $actual, expected ${pinned.readText().trim()}")
+        }
+        out.mkdirs()
+        script.copyTo(File(out, "mermaid.min.js"), overwrite = true)
+        File(vendor, "LICENSE").takeIf { it.isFile }?.copyTo(File(out, "LICENSE"), overwrite = true)
+    }
+}
+
+sourceSets {
+    main {
+        resources.srcDir(mermaidResources)
+    }
+}
+
+// Benchmarks and the stub LLM server (src/benchmark/java) run against the plugin classes but are
+// never packaged into the plugin jar
+val benchmark: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+    runtimeClasspath += sourceSets.main.get().output + sourceSets.main.get().runtimeClasspath
+}
+
 tasks {
+    processResources {
+        dependsOn(bundleMermaid)
+    }
+
     patchPluginXml {
         sinceBuild.set("223")  // for IntelliJ 2021.1
         untilBuild.set("231.*") // adjust as needed
@@ -0,0 +1,120 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Allocation per request/response for a large prompt: the old string-escaping payload plus a
+ * full Gson tree for the response, against {@link JsonStreams} writing into the (here: null)
+ * HTTP stream and reading only the text field. Uses the HotSpot per-thread allocation counter.
+ */
+public class JsonStreamsBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+        int promptChars = args.length > 0 ? Integer.parseInt(args[0]) : 300_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        String prompt = generatePrompt(promptChars);
+        byte[] response = generateResponse(promptChars / 3);
+        System.out.printf("prompt: %d KB, response: %d KB%n", promptChars / 1024, response.length / 1024);
+
+        for (int i = 0; i < 20; i++) {
+            oldRequest(prompt);
+            newRequest(prompt);
+            oldResponse(response);
+            newResponse(response);
+        }
+
+        long oldReq = allocated(rounds, () -> oldRequest(prompt));
+        long newReq = allocated(rounds, () -> newRequest(prompt));
+        long oldResp = allocated(rounds, () -> oldResponse(response));
+        long newResp = allocated(rounds, () -> newResponse(response));
+        System.out.printf("request  : string escaping %,d KB, streaming writer %,d KB (%.1fx less)%n",
+                oldReq / 1024, newReq / 1024, (double) oldReq / newReq);
+        System.out.printf("response : Gson tree       %,d KB, streaming reader %,d KB (%.1fx less)%n",
+                oldResp / 1024, newResp / 1024, (double) oldResp / newResp);
+    }
+
+    private interface Op {
+        void run() throws IOException;
+    }
+
+    private static long allocated(int rounds, Op op) throws IOException {
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < rounds; i++) op.run();
+        return (THREADS.getCurrentThreadAllocatedBytes() - before) / rounds;
+    }
+
+    // What sendPrompt used to do: two replace() copies, a concatenated payload, then OkHttp's UTF-8 encode
+    private static void oldRequest(String prompt) throws IOException {
+        String escaped = prompt.replace("\\", "\\\\").replace("\"", "\\\"");
+        String payload = "{ \"contents\": [ { \"parts\": [ { \"text\": \"" + escaped + "\" } ] } ] }";
+        NULL.write(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void newRequest(String prompt) throws IOException {
+        JsonStreams.write(new OutputStreamWriter(NULL, StandardCharsets.UTF_8), writer -> writer.beginObject()
+                .name("contents").beginArray().beginObject().name("parts").beginArray()
+                .beginObject().name("text").value(prompt).endObject()
+                .endArray().endObject().endArray().endObject());
+    }
+
+    // body.string() followed by a full tree parse
+    private static void oldResponse(byte[] response) {
+        String json = new String(response, StandardCharsets.UTF_8);
+        JsonObject obj = JsonParser.parseString(json).getAsJsonObject();
+        obj.getAsJsonArray("candidates").get(0).getAsJsonObject()
+                .getAsJsonObject("content")
+                .getAsJsonArray("parts").get(0).getAsJsonObject()
+                .get("text").getAsString();
+    }
+
+    private static void newResponse(byte[] response) throws IOException {
+        JsonStreams.readString(new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8),
+                "candidates", "0", "content", "parts", "0", "text");
+    }
+
+    private static String generatePrompt(int chars) {
+        StringBuilder prompt = new StringBuilder(chars + 100);
+        int i = 0;
+        while (prompt.length() < chars) {
+            prompt.append("    Dataset<Row> df").append(i).append(" = spark.table(\"sales.orders_").append(i)
+                    .append("\").filter(col(\"state\").equalTo(\"CA\"));\n");
+            i++;
+        }
+        return prompt.toString();
+    }
+
+    private static byte[] generateResponse(int textChars) {
+        StringBuilder text = new StringBuilder(textChars + 100);
+        int i = 0;
+        while (text.length() < textChars) {
+            text.append("    ds").append(i).append("[\\\"orders ").append(i).append("\\\"] --> ds").append(i + 1).append("\\n");
+            i++;
+        }
+        String json = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"" + text + "\"}],\"role\":\"model\"},"
+                + "\"finishReason\":\"STOP\",\"safetyRatings\":[]}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":85000,\"candidatesTokenCount\":30000}}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+}
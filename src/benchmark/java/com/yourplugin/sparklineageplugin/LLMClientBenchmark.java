@@ -0,0 +1,79 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares calls per second against a local stub LLM server: a fresh client per call
+ * (no connection reuse, like the old HttpURLConnection code with its own socket each time)
+ * versus the shared pooled client from {@link LLMHttpClient}.
+ */
+public class LLMClientBenchmark {
+
+    private static final String STUB_RESPONSE =
+            "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"graph TD\\n A --> B\"}]}}]}";
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = STUB_RESPONSE.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models/stub:generateContent";
+        String payload = "{ \"contents\": [ { \"parts\": [ { \"text\": \"ping\" } ] } ] }";
+
+        try {
+            // warm up both paths so JIT and class loading don't skew the first run
+            run(url, payload, 200, false);
+            run(url, payload, 200, true);
+
+            double fresh = run(url, payload, calls, false);
+            double pooled = run(url, payload, calls, true);
+            System.out.printf("fresh client per call : %.0f calls/s%n", fresh);
+            System.out.printf("shared pooled client  : %.0f calls/s%n", pooled);
+            System.out.printf("speedup               : %.2fx%n", pooled / fresh);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static double run(String url, String payload, int calls, boolean pooled) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            OkHttpClient client = pooled ? LLMHttpClient.get() : LLMHttpClient.newClient();
+            post(client, url, payload);
+            if (!pooled) {
+                client.connectionPool().evictAll();
+            }
+        }
+        return calls / ((System.nanoTime() - start) / 1e9);
+    }
+
+    private static String post(OkHttpClient client, String url, String payload) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(RequestBody.create(payload, HttpLLMBackend.JSON))
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            return body != null ? body.string() : "";
+        }
+    }
+}
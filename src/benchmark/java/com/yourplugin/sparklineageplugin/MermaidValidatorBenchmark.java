@@ -0,0 +1,89 @@
+package com.yourplugin.sparklineageplugin;
+
+/**
+ * Times {@link MermaidValidator#extractAndRepair} (a full {@link MermaidParser} pass) on
+ * generated lineage diagrams with thousands of column edges, against the previous regex
+ * implementation (five {@code replaceAll} calls per line plus a {@code Pattern.compile} per
+ * extraction), kept here as the baseline.
+ */
+public class MermaidValidatorBenchmark {
+
+    // keeps the JIT from dropping the repair calls as dead code
+    static volatile int sink;
+
+    public static void main(String[] args) {
+        int columns = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        String markdown = "## Data Lineage\n\n```mermaid\n" + generateDiagram(columns) + "\n```\n\nDescription.";
+        System.out.printf("diagram: %d columns, %d lines, %d KB%n",
+                columns, markdown.split("\n").length, markdown.length() / 1024);
+
+        // warm up both paths so JIT and class loading don't skew the first run
+        for (int i = 0; i < 5; i++) {
+            regexExtractAndRepair(markdown);
+            MermaidValidator.extractAndRepair(markdown);
+        }
+
+        double regex = run(markdown, rounds, true);
+        double parser = run(markdown, rounds, false);
+        System.out.printf("regex repair       : %.2f ms/diagram%n", regex);
+        System.out.printf("parser repair      : %.2f ms/diagram%n", parser);
+        System.out.printf("speedup            : %.2fx%n", regex / parser);
+    }
+
+    private static double run(String markdown, int rounds, boolean regex) {
+        long start = System.nanoTime();
+        int total = 0;
+        for (int i = 0; i < rounds; i++) {
+            String result = regex ? regexExtractAndRepair(markdown) : MermaidValidator.extractAndRepair(markdown);
+            total += result.length();
+        }
+        sink = total;
+        return (System.nanoTime() - start) / 1e6 / rounds;
+    }
+
+    // Shaped like LLM output: a subgraph per dataset, unquoted labels, inline text arrows
+    static String generateDiagram(int columns) {
+        StringBuilder diagram = new StringBuilder("graph TD\n");
+        int datasets = Math.max(2, columns / 20);
+        for (int d = 0; d < datasets; d++) {
+            diagram.append("    subgraph ds").append(d).append("[Dataset \"").append(d).append("\"]\n");
+            for (int c = d; c < columns; c += datasets) {
+                diagram.append("        ds").append(d).append("_c").append(c).append("[col_").append(c).append("]\n");
+            }
+            diagram.append("    end\n");
+        }
+        for (int c = 0; c < columns; c++) {
+            int d = c % datasets;
+            int next = (d + 1) % datasets;
+            if (c % 3 == 0) {
+                diagram.append("    ds").append(d).append("_c").append(c).append(" -- filter x > 0 --> ds")
+                        .append(next).append("_c").append(c).append('\n');
+            } else {
+                diagram.append("    ds").append(d).append("_c").append(c).append(" -->|cast| ds")
+                        .append(next).append("_c").append(c).append('\n');
+            }
+        }
+        return diagram.toString();
+    }
+
+    private static String regexExtractAndRepair(String markdown) {
+        java.util.regex.Matcher matcher = java.util.regex.Pattern
+                .compile("```mermaid\\s+([\\s\\S]*?)\\s+```", java.util.regex.Pattern.MULTILINE).matcher(markdown);
+        if (!matcher.find()) return null;
+        String[] lines = matcher.group(1).trim().split("\\r?\\n");
+        StringBuilder repaired = new StringBuilder();
+        if (!lines[0].trim().startsWith("graph")) repaired.append("graph TD\n");
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) continue;
+            trimmed = trimmed.replaceAll("--\\s*([a-zA-Z0-9_\\s=><!\"']+)\\s*-->", "-->|$1|-->");
+            trimmed = trimmed.replaceAll("\\[([^\\]]*?)\"([^\\]]*?)\\]", "[$1'$2]");
+            trimmed = trimmed.replaceAll("\\{\"([^\"]*?)\"\\}", "{\"$1\"}");
+            trimmed = trimmed.replaceAll("([\\w\\d]+)\\[(.+?)\\]", "$1[\"$2\"]");
+            trimmed = trimmed.replaceAll("([\\w\\d]+)\\{(.+?)\\}", "$1{\"$2\"}");
+            repaired.append("    ").append(trimmed).append("\n");
+        }
+        return repaired.toString().trim();
+    }
+}
@@ -0,0 +1,58 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.io.IOException;
+
+/**
+ * Time to first token against a running Ollama server, for a series of lineage prompts that
+ * differ only in their code: the old layout (static-analysis skeleton first, then the
+ * instructions and the code, all in one user message, default keep-alive) against the split
+ * layout (instructions as a stable system message, skeleton and code after it, keep_alive set).
+ *
+ * Usage: {@code PromptPrefixBenchmark [ollamaUrl] [model] [calls]}. The first call of each run
+ * is excluded, since it has to load the model and fill the cache either way.
+ */
+public class PromptPrefixBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : "http://localhost:11434";
+        String model = args.length > 1 ? args[1] : "gemma3:4b";
+        int calls = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        double before = run(new OllamaBackend(url, model), calls, false);
+        double after = run(new OllamaBackend(url, model, "30m"), calls, true);
+        System.out.printf("old layout   : mean time to first token %.0f ms%n", before);
+        System.out.printf("split layout : mean time to first token %.0f ms (%.1fx faster)%n", after, before / after);
+    }
+
+    private static double run(LLMBackend backend, int calls, boolean split) throws IOException {
+        long total = 0;
+        for (int i = 0; i <= calls; i++) {
+            LLMPrompt prompt = prompt(i, split);
+            long start = System.nanoTime();
+            long[] firstToken = {0};
+            backend.stream(prompt, token -> {
+                if (firstToken[0] == 0) firstToken[0] = System.nanoTime();
+            });
+            if (i > 0) total += (firstToken[0] - start) / 1_000_000;
+        }
+        return (double) total / calls;
+    }
+
+    private static LLMPrompt prompt(int variant, boolean split) {
+        String skeleton = "A static analysis of the code already extracted this lineage skeleton:\n\n```mermaid\n"
+                + "graph LR\n    orders_" + variant + " --> daily_" + variant + "\n```\n\n";
+        String code = "Here is the Spark job code to analyze:\n\n" + code(variant);
+        return split
+                ? LLMPrompt.of(PromptBuilder.LINEAGE_INSTRUCTIONS, skeleton + code)
+                : LLMPrompt.user(skeleton + PromptBuilder.LINEAGE_INSTRUCTIONS + code);
+    }
+
+    private static String code(int variant) {
+        StringBuilder code = new StringBuilder("// Method: Job" + variant + "#run\n");
+        for (int i = 0; i < 20; i++) {
+            code.append("Dataset<Row> df").append(i).append(" = spark.table(\"sales.orders_").append(variant)
+                    .append("\").filter(col(\"amount\").gt(").append(i).append("));\n");
+        }
+        return code.append("df19.write().saveAsTable(\"sales.daily_").append(variant).append("\");\n").toString();
+    }
+}
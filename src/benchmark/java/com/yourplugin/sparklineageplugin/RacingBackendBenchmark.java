@@ -0,0 +1,92 @@
+package com.yourplugin.sparklineageplugin;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * p50/p99 latency of one backend alone versus {@link RacingBackend} over two, with simulated
+ * backends whose latency has an independent slow tail: a local model (fast, 8% of calls stall
+ * behind another generation) and a remote one (slower, 4% of calls hit a cold start or 5xx
+ * retry). Latencies are scaled down 10x so the run takes seconds.
+ */
+public class RacingBackendBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        LLMBackend local = new SimulatedBackend("ollama", 150, 0.08, 2000, 1);
+        LLMBackend remote = new SimulatedBackend("gemini", 250, 0.04, 3000, 2);
+        LLMBackend race = new RacingBackend("gemma3:4b", executor, text -> !text.isEmpty(), local, remote);
+        try {
+            report("local alone ", local, calls);
+            report("remote alone", remote, calls);
+            report("race        ", race, calls);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void report(String label, LLMBackend backend, int calls) throws Exception {
+        long[] millis = new long[calls];
+        for (int i = 0; i < calls; i++) {
+            long start = System.nanoTime();
+            backend.complete(LLMPrompt.user("prompt"));
+            millis[i] = (System.nanoTime() - start) / 1_000_000 * 10;
+        }
+        Arrays.sort(millis);
+        System.out.printf("%s : p50 %5d ms, p99 %5d ms%n", label, millis[calls / 2], millis[calls * 99 / 100]);
+    }
+
+    private static final class SimulatedBackend implements LLMBackend {
+        private final String name;
+        private final long typicalMillis;
+        private final double slowFraction;
+        private final long slowMillis;
+        private final Random random;
+
+        SimulatedBackend(String name, long typicalMillis, double slowFraction, long slowMillis, long seed) {
+            this.name = name;
+            this.typicalMillis = typicalMillis;
+            this.slowFraction = slowFraction;
+            this.slowMillis = slowMillis;
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String modelId() {
+            return name;
+        }
+
+        @Override
+        public String complete(LLMPrompt prompt) {
+            long latency;
+            synchronized (random) {
+                latency = random.nextDouble() < slowFraction
+                        ? slowMillis
+                        : (long) (typicalMillis * (0.8 + 0.4 * random.nextDouble()));
+            }
+            try {
+                Thread.sleep(latency / 10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "";
+            }
+            return "graph LR\n A --> B";
+        }
+
+        @Override
+        public String stream(LLMPrompt prompt, Consumer<String> onToken) {
+            String text = complete(prompt);
+            onToken.accept(text);
+            return text;
+        }
+    }
+}
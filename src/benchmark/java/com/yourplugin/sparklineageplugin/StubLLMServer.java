@@ -0,0 +1,158 @@
+package com.yourplugin.sparklineageplugin;
+
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+
+/**
+ * Local HTTP stand-in for an LLM, for trying the backends, the race mode and the benchmarks
+ * without a model. Answers every prompt with the same reply, after a configurable delay, in
+ * the wire format of each supported backend:
+ * <ul>
+ *   <li>Ollama: {@code POST /api/chat}</li>
+ *   <li>OpenAI-compatible: {@code POST /v1/chat/completions}</li>
+ *   <li>Gemini: {@code POST /v1beta/models/<model>:generateContent} and {@code :streamGenerateContent}</li>
+ * </ul>
+ * Streaming requests get the reply split into word chunks. Run {@link #main} to keep one up
+ * on a fixed port and select the "stub" backend in the LLM settings.
+ */
+public class StubLLMServer implements AutoCloseable {
+
+    public static final String DEFAULT_REPLY = "## Lineage\n\n```mermaid\ngraph LR\n"
+            + "    orders[\"table: sales.orders\"] --> daily[\"sink table: sales.daily\"]\n```\n";
+
+    private final HttpServer server;
+    private final String reply;
+    private final LongSupplier delayMillis;
+
+    public StubLLMServer(int port, String reply, LongSupplier delayMillis) throws IOException {
+        this.reply = reply;
+        this.delayMillis = delayMillis;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "StubLLMServer");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /** Base URL, e.g. {@code http://127.0.0.1:18080}. */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public LLMBackend ollama() {
+        return new OllamaBackend(url(), "stub");
+    }
+
+    public LLMBackend openAi() {
+        return new OpenAICompatibleBackend(url() + "/v1", "", "stub");
+    }
+
+    public LLMBackend gemini() {
+        return new GeminiBackend(url() + "/v1beta/models/", "stub-key", "stub");
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            String path = exchange.getRequestURI().getPath();
+            boolean stream = request.contains("\"stream\":true") || path.endsWith(":streamGenerateContent");
+            try {
+                Thread.sleep(delayMillis.getAsLong());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Format format = path.startsWith("/api/chat") ? Format.OLLAMA
+                    : path.endsWith("/chat/completions") ? Format.OPENAI
+                    : path.contains(":") ? Format.GEMINI : null;
+            if (format == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Type",
+                    stream && format != Format.OLLAMA ? "text/event-stream" : "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8);
+            if (stream) {
+                for (String chunk : reply.split("(?<= )")) {
+                    writeEvent(out, format, chunk);
+                    out.flush();
+                }
+                if (format == Format.OPENAI) out.write("data: [DONE]\n\n");
+            } else {
+                writeMessage(out, format, reply);
+            }
+            out.flush();
+        }
+    }
+
+    private enum Format { OLLAMA, OPENAI, GEMINI }
+
+    private static void writeEvent(Writer out, Format format, String chunk) throws IOException {
+        if (format == Format.OLLAMA) {
+            writeMessage(out, format, chunk);
+            out.write("\n");
+            return;
+        }
+        out.write("data: ");
+        if (format == Format.OPENAI) {
+            JsonWriter json = new JsonWriter(out);
+            json.beginObject().name("choices").beginArray().beginObject()
+                    .name("delta").beginObject().name("content").value(chunk).endObject()
+                    .endObject().endArray().endObject();
+            json.flush();
+        } else {
+            writeMessage(out, format, chunk);
+        }
+        out.write("\n\n");
+    }
+
+    private static void writeMessage(Writer out, Format format, String text) throws IOException {
+        JsonWriter json = new JsonWriter(out);
+        json.beginObject();
+        switch (format) {
+            case OLLAMA:
+                json.name("message").beginObject().name("role").value("assistant").name("content").value(text).endObject();
+                break;
+            case OPENAI:
+                json.name("choices").beginArray().beginObject()
+                        .name("message").beginObject().name("role").value("assistant").name("content").value(text).endObject()
+                        .endObject().endArray();
+                break;
+            case GEMINI:
+                json.name("candidates").beginArray().beginObject()
+                        .name("content").beginObject().name("parts").beginArray()
+                        .beginObject().name("text").value(text).endObject()
+                        .endArray().endObject()
+                        .endObject().endArray();
+                break;
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 18080;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 500;
+        StubLLMServer server = new StubLLMServer(port, DEFAULT_REPLY, () -> delay);
+        System.out.println("stub LLM listening on " + server.url() + " (" + delay + " ms per reply)");
+        Thread.currentThread().join();
+    }
+}